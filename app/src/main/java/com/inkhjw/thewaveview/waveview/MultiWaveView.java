@@ -2,17 +2,23 @@ package com.inkhjw.thewaveview.waveview;
 
 import android.annotation.TargetApi;
 import android.content.Context;
+import android.content.res.TypedArray;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
+import android.graphics.Rect;
 import android.graphics.drawable.Drawable;
 import android.os.Build;
 import android.util.AttributeSet;
-import android.util.Log;
+import android.view.MotionEvent;
 import android.view.View;
 import android.view.animation.AnimationUtils;
 
+import com.inkhjw.thewaveview.R;
 import com.inkhjw.thewaveview.waveview.drawable.WaveAnimationDrawable;
+import com.inkhjw.thewaveview.waveview.drawable.WaveFrameAtlasCache;
+import com.inkhjw.thewaveview.waveview.drawable.WaveLayerKernel;
 
 import java.util.ArrayList;
 
@@ -24,6 +30,86 @@ import java.util.ArrayList;
 
 public class MultiWaveView extends View {
     private ArrayList<WaveDrawable> waveDrawables = new ArrayList<>();
+    //层数、相位、颜色和动画错开的配置
+    private LayerConfig layerConfig = new LayerConfig.Builder().build();
+    //由layerConfig创建的每一层的颜色，配置或顶层颜色变化时计算一次；直接设置Drawable时为null
+    private int[] layerColors;
+    private Paint layerPaint;
+    //遮挡裁剪：下层只画没有被上层不透明区域覆盖的部分，减少过度绘制
+    private boolean occlusionCulling = true;
+    //每一层的裁剪底部，onDraw中复用
+    private float[] layerClipBottoms = new float[0];
+    //各层只有初相位不同，几何缓存失效时一次算出所有层
+    private final WaveLayerKernel layerKernel = new WaveLayerKernel();
+    //绘制统计，默认关闭
+    private WaveRenderStats renderStats;
+    private WaveRenderStats.OnRenderStatsListener renderStatsListener;
+    //自适应的绘制质量，默认关闭
+    private WaveQualityGovernor qualityGovernor;
+    private final WaveQualityGovernor.OnQualityChangeListener qualityTarget =
+            new WaveQualityGovernor.OnQualityChangeListener() {
+                @Override
+                public void onQualityChanged(int oldLevel, int newLevel) {
+                    applyQualityLevel();
+                }
+            };
+    //调用者设置的帧图集开关，质量降到LEVEL_FRAME_ATLAS时也会开启
+    private boolean frameAtlasEnabled;
+    //触摸涟漪，默认关闭
+    private boolean touchRipplesEnabled;
+    //当前手势在波浪带内按下，由这个View处理
+    private boolean rippleGesture;
+    //流水线式的几何计算，默认关闭
+    private boolean pipelinedGeometryEnabled;
+    //形状遮罩，只在大小变化时重新渲染
+    private WaveShapeMask shapeMask;
+    //所有层共用一个帧时钟(最底层Drawable状态的时钟)，每一帧只回调一次、重绘一次。
+    //配置相同的View共用状态，也就共用同一个时钟
+    private WaveFrameClock frameClock;
+    private boolean clockAcquired;
+    private final WaveFrameClock.OnFrameListener frameListener = new WaveFrameClock.OnFrameListener() {
+        @Override
+        public void onFrame(long playTimeNanos) {
+            if (renderStats != null) {
+                renderStats.recordClockCallback(frameClock.getLastSkippedFrames());
+            }
+            //降低帧率的质量等级中跳过部分帧
+            if (qualityGovernor != null && !qualityGovernor.shouldDrawFrame(playTimeNanos)) {
+                if (renderStats != null) {
+                    renderStats.recordSuppressedFrame();
+                }
+                return;
+            }
+            boolean changed = false;
+            for (int i = 0; i < waveDrawables.size(); i++) {
+                WaveDrawable waveDrawable = waveDrawables.get(i);
+                if (waveDrawable != null) {
+                    waveDrawable.setPlayTime(playTimeNanos);
+                    changed |= waveDrawable.isRenderStateChanged();
+                }
+            }
+            //所有层的画面都与上一次绘制相同时跳过这一帧
+            if (!changed) {
+                if (renderStats != null) {
+                    renderStats.recordSuppressedFrame();
+                }
+                return;
+            }
+            invalidate();
+        }
+    };
+    //滚动出屏幕时暂停动画
+    private final WaveVisibilityTracker visibilityTracker = new WaveVisibilityTracker(this,
+            new WaveVisibilityTracker.Callback() {
+                @Override
+                public void onScreenVisibilityChanged(boolean onScreen) {
+                    if (onScreen) {
+                        startAnimation();
+                    } else {
+                        pauseAnimation();
+                    }
+                }
+            });
 
     public MultiWaveView(Context context) {
         super(context);
@@ -41,7 +127,9 @@ public class MultiWaveView extends View {
     }
 
     private void init(Context context, AttributeSet attrs) {
-        WaveView.WaveAttribute waveAttribute = new WaveView.WaveAttribute(context, attrs);
+        WaveView.WaveAttribute waveAttribute = WaveView.WaveAttribute.obtain(context, attrs);
+        layerConfig = LayerConfig.obtain(context, attrs);
+        shapeMask = WaveShapeMask.obtain(context, attrs);
         Paint paint = new Paint();
         paint.setColor(waveAttribute.waveColor);
         paint.setAntiAlias(true);
@@ -50,28 +138,147 @@ public class MultiWaveView extends View {
         setDefaultMultiWaveView(waveAttribute, paint);
     }
 
+    /**
+     * 按layerConfig创建每一层，waveAttribute为最顶层的属性，颜色在这里一次算好，绘制时不再设置
+     *
+     * @param waveAttribute 最顶层的属性
+     * @param paint         每一层画笔的模板
+     */
     public void setDefaultMultiWaveView(WaveView.WaveAttribute waveAttribute, Paint paint) {
-        ArrayList<WaveDrawable> defaultWaves = new ArrayList<>();
-        for (int i = 0; i < 3; i++) {
-            WaveAnimationDrawable waveAnimationDrawable = new WaveAnimationDrawable(waveAttribute, paint);
-            waveAnimationDrawable.setφ(-1.0 * (i + 1) * (Math.PI / 4));
-            defaultWaves.add(waveAnimationDrawable);
+        int layerCount = layerConfig.layerCount;
+        int[] colors = layerConfig.resolveColors(waveAttribute.waveColor);
+        ArrayList<WaveDrawable> defaultWaves = new ArrayList<>(layerCount);
+        for (int i = 0; i < layerCount; i++) {
+            WaveView.WaveAttribute layerAttribute = waveAttribute.buildUpon().setWaveColor(colors[i]).build();
+            WaveAnimationDrawable waveAnimationDrawable = new WaveAnimationDrawable(layerAttribute, paint);
+            waveAnimationDrawable.setPaintColor(colors[i]);
+            waveAnimationDrawable.setφ(layerConfig.getLayerPhase(i));
+            //越靠前(后绘制)的层流动越快，最顶层的速度为flowSpeed。不流动时不覆盖属性中的速度
+            if (waveAttribute.flowSpeed != 0) {
+                waveAnimationDrawable.setFlowSpeed(getLayerFlowSpeed(waveAttribute.flowSpeed, i, layerCount));
+            }
+            //列表中配置相同的View，每一层共用几何缓存和帧时钟
+            defaultWaves.add(WaveAnimationDrawable.share(waveAnimationDrawable));
+        }
+        layerPaint = paint;
+        setLayers(defaultWaves);
+        layerColors = colors;
+    }
+
+    private static float getLayerFlowSpeed(float flowSpeed, int layer, int layerCount) {
+        return flowSpeed * (layer + 1) / layerCount;
+    }
+
+    /**
+     * 修改层的配置，按新的配置重新创建每一层(会替换{@link #setWaveDrawables(ArrayList)}设置的Drawable)
+     *
+     * @param layerConfig 层的配置
+     */
+    public void setLayerConfig(LayerConfig layerConfig) {
+        if (layerConfig == null) {
+            throw new IllegalArgumentException("layerConfig must not be null");
+        }
+        if (layerConfig.equals(this.layerConfig) && layerColors != null) {
+            return;
         }
-        setWaveDrawables(defaultWaves);
+        this.layerConfig = layerConfig;
+        WaveView.WaveAttribute waveAttribute = getWaveAttributes();
+        if (waveAttribute == null) {
+            waveAttribute = new WaveView.WaveAttribute.Builder().build();
+        }
+        setDefaultMultiWaveView(waveAttribute, layerPaint);
+    }
+
+    public LayerConfig getLayerConfig() {
+        return layerConfig;
     }
 
     @Override
     protected void onDraw(Canvas canvas) {
+        if (renderStats == null && qualityGovernor == null) {
+            drawLayers(canvas);
+            return;
+        }
+        long startNanos = System.nanoTime();
+        if (renderStats != null) {
+            renderStats.beginFrame();
+        }
+        drawLayers(canvas);
+        if (qualityGovernor != null) {
+            qualityGovernor.onFrameDrawn(System.nanoTime() - startNanos);
+        }
+        if (renderStats == null) {
+            return;
+        }
+        int vertexCount = 0;
+        for (int i = 0; i < waveDrawables.size(); i++) {
+            vertexCount += waveDrawables.get(i).getLastVertexCount();
+        }
+        renderStats.endFrame(vertexCount);
+        if (renderStatsListener != null) {
+            renderStatsListener.onFrameRendered(renderStats);
+        }
+    }
+
+    private void drawLayers(Canvas canvas) {
         int size = waveDrawables.size();
-        for (int i = 0; i < size; i++) {
+        layerKernel.prepare(waveDrawables);
+        //降低质量时只画上面的层，不画的层当作已经按当前状态绘制
+        int first = qualityGovernor != null ? size - qualityGovernor.getVisibleLayerCount(size) : 0;
+        for (int i = 0; i < first; i++) {
+            waveDrawables.get(i).markRendered();
+        }
+
+        if (!occlusionCulling) {
+            for (int i = first; i < size; i++) {
+                waveDrawables.get(i).draw(canvas);
+            }
+            return;
+        }
+
+        //从最顶层往下计算：每一层只需要画到上面所有不透明层覆盖区域的顶部为止
+        if (layerClipBottoms.length < size) {
+            layerClipBottoms = new float[size];
+        }
+        float coveredTop = Float.MAX_VALUE;
+        for (int i = size - 1; i >= first; i--) {
             WaveDrawable w = waveDrawables.get(i);
-            if (i == 0) {
-                w.setPaintColor(Color.parseColor("#FAE0E0"));
-            } else if (i == 1) {
-                w.setPaintColor(Color.parseColor("#FBC7C7"));
+            layerClipBottoms[i] = coveredTop;
+            if (w.isOpaqueFill()) {
+                coveredTop = Math.min(coveredTop, w.getCoveredTop());
             }
-            w.draw(canvas);
         }
+        for (int i = first; i < size; i++) {
+            WaveDrawable w = waveDrawables.get(i);
+            Rect bounds = w.getBounds();
+            float clipBottom = layerClipBottoms[i];
+            if (clipBottom >= bounds.bottom) {
+                w.draw(canvas);
+            } else if (clipBottom > bounds.top) {
+                int saveCount = canvas.save();
+                canvas.clipRect(bounds.left, bounds.top, bounds.right, clipBottom);
+                w.draw(canvas);
+                canvas.restoreToCount(saveCount);
+            } else {
+                //被上层完全遮挡，没有绘制，当作已经按当前状态绘制
+                w.markRendered();
+            }
+        }
+    }
+
+    /**
+     * 设置是否开启遮挡裁剪。开启时下层只画没有被上层不透明波浪覆盖的部分，
+     * 半透明的层不会遮挡下层，会自动按原来的方式绘制
+     *
+     * @param occlusionCulling 是否开启，默认开启
+     */
+    public void setOcclusionCulling(boolean occlusionCulling) {
+        this.occlusionCulling = occlusionCulling;
+        invalidate();
+    }
+
+    public boolean isOcclusionCulling() {
+        return occlusionCulling;
     }
 
     @Override
@@ -87,8 +294,13 @@ public class MultiWaveView extends View {
 
     @Override
     protected boolean verifyDrawable(Drawable who) {
-        return (waveDrawables.get(0) != null && who == waveDrawables.get(0))
-                || super.verifyDrawable(who);
+        //每一层的invalidateSelf都需要重绘，没有层时也不会越界
+        for (int i = 0; i < waveDrawables.size(); i++) {
+            if (who == waveDrawables.get(i)) {
+                return true;
+            }
+        }
+        return super.verifyDrawable(who);
     }
 
     /**
@@ -107,7 +319,7 @@ public class MultiWaveView extends View {
     protected void onVisibilityChanged(View changedView, int visibility) {
         super.onVisibilityChanged(changedView, visibility);
         if (visibility == GONE || visibility == INVISIBLE) {
-            stopAnimation();
+            pauseAnimation();
         } else {
             startAnimation();
         }
@@ -116,6 +328,7 @@ public class MultiWaveView extends View {
     @Override
     protected void onSizeChanged(int w, int h, int oldw, int oldh) {
         updateDrawableBounds(w, h);
+        applyShapeMask();
     }
 
     /**
@@ -169,38 +382,78 @@ public class MultiWaveView extends View {
         }
     }
 
+    /**
+     * 开启触摸涟漪时，在任意一层的波浪带内按下的手势扰动每一层波浪，按下和移动的位置都会产生涟漪。
+     * 波浪带以外的触摸按View原本的方式处理；涟漪只从这里注入，不使用hotspot
+     */
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        boolean handled = super.onTouchEvent(event);
+        if (!touchRipplesEnabled) {
+            return handled;
+        }
+        int action = event.getActionMasked();
+        if (action == MotionEvent.ACTION_DOWN) {
+            rippleGesture = isInWaveBand((int) event.getX(), (int) event.getY());
+        }
+        if (!rippleGesture) {
+            return handled;
+        }
+        if (action == MotionEvent.ACTION_DOWN || action == MotionEvent.ACTION_MOVE) {
+            for (int i = 0; i < waveDrawables.size(); i++) {
+                WaveDrawable waveDrawable = waveDrawables.get(i);
+                if (waveDrawable != null) {
+                    waveDrawable.disturb(event.getX(), event.getY());
+                }
+            }
+        } else if (action == MotionEvent.ACTION_UP || action == MotionEvent.ACTION_CANCEL) {
+            rippleGesture = false;
+            //可点击时super已经处理了点击
+            if (action == MotionEvent.ACTION_UP && !handled) {
+                performClick();
+            }
+        }
+        return true;
+    }
+
+    private boolean isInWaveBand(int x, int y) {
+        for (int i = 0; i < waveDrawables.size(); i++) {
+            WaveDrawable waveDrawable = waveDrawables.get(i);
+            if (waveDrawable != null && waveDrawable.getDirtyBounds().contains(x, y)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     @Override
     protected void onAttachedToWindow() {
         super.onAttachedToWindow();
+        visibilityTracker.attach();
+        frameClock.addFrameListener(frameListener);
         startAnimation();
     }
 
     @Override
     protected void onDetachedFromWindow() {
         super.onDetachedFromWindow();
-        stopAnimation();
-    }
-
-
-    private int countLayerColor(int paintColor, int position) {
-        int red = (paintColor & 0xff0000) >> 16;
-        int green = (paintColor & 0x00ff00) >> 8;
-        int blue = (paintColor & 0x0000ff);
-
-        int r = red + 16 * position;
-        int g = green + 16 * position;
-        int b = blue + 16 * position;
-
-        Log.e("debug", "rgb(" + r + "," + g + "," + b + ")");
-        return Color.rgb(r, g, b);
+        visibilityTracker.detach();
+        pauseAnimation();
+        //共用的时钟仍然在为其他View播放，detach后不再接收帧回调
+        frameClock.removeFrameListener(frameListener);
     }
 
     /**
-     * 设置WaveDrawable
+     * 设置WaveDrawable，每一层的颜色、相位由调用者设置，不再使用layerConfig中的颜色
      *
      * @param drawables
      */
     public void setWaveDrawables(ArrayList<WaveDrawable> drawables) {
+        layerColors = null;
+        setLayers(drawables);
+    }
+
+    private void setLayers(ArrayList<WaveDrawable> drawables) {
         for (int i = 0; i < waveDrawables.size(); i++) {
             WaveDrawable waveDrawable = waveDrawables.get(i);
             if (waveDrawable != null) {
@@ -218,44 +471,345 @@ public class MultiWaveView extends View {
                 }
                 postInvalidate();
             }
+            //已经布局过时，新的Drawable直接使用当前的大小
+            if (getWidth() > 0) {
+                updateDrawableBounds(getWidth(), getHeight());
+            }
+        }
+        bindFrameClock();
+        updateLayerTimeOffsets();
+        if (qualityGovernor != null) {
+            applyQualityLevel();
         }
+        if (touchRipplesEnabled) {
+            setTouchRipplesEnabled(true);
+        }
+        if (pipelinedGeometryEnabled) {
+            setPipelinedGeometryEnabled(true);
+        }
+        applyShapeMask();
     }
 
     /**
-     * 多视图动画，采用延时开启动画。实现不同高度的波浪效果
+     * 跟随最底层Drawable状态的帧时钟，Drawable或它的状态变化后调用
      */
-    void startAnimation() {
-        if (getVisibility() != VISIBLE) {
+    private void bindFrameClock() {
+        WaveFrameClock clock;
+        if (!waveDrawables.isEmpty() && waveDrawables.get(0) != null) {
+            clock = waveDrawables.get(0).getFrameClock();
+        } else {
+            clock = frameClock != null ? frameClock : new WaveFrameClock();
+        }
+        if (clock == frameClock) {
             return;
         }
+        boolean acquired = clockAcquired;
+        if (frameClock != null) {
+            pauseAnimation();
+            frameClock.removeFrameListener(frameListener);
+        }
+        frameClock = clock;
+        frameClock.addFrameListener(frameListener);
+        if (acquired) {
+            clockAcquired = true;
+            frameClock.acquire();
+        }
+    }
+
+    /**
+     * 多视图动画，通过时间偏移错开每一层，实现不同高度的波浪效果。
+     * index越大越靠前(后绘制)，越靠后的层时间上越滞后，错开的幅度由layerConfig.stagger决定
+     */
+    private void updateLayerTimeOffsets() {
         int size = waveDrawables.size();
         for (int i = 0; i < size; i++) {
-            final WaveDrawable waveDrawable = waveDrawables.get(i);
+            WaveDrawable waveDrawable = waveDrawables.get(i);
             if (waveDrawable != null) {
-                //在开启动画后直接移除Runnable
-                final Runnable runnable = new Runnable() {
-                    @Override
-                    public void run() {
-                        waveDrawable.start();
-                        removeCallbacks(this);
-                    }
-                };
-                //根据顺序来延时开启动画，index越小的表示在View的最顶层
-                long time = (long) ((1.0f * (size - i) / size) * (waveDrawable.getWaveAttribute().animationTotalHeight / waveDrawable.getWaveAttribute().animationSpeed));
-                postDelayed(runnable, time);
+                WaveView.WaveAttribute attribute = waveDrawable.getWaveAttribute();
+                double delayMillis = attribute.animationSpeed > 0 ? layerConfig.stagger * (1.0 * (size - i) / size)
+                        * (attribute.animationTotalHeight / attribute.animationSpeed) : 0;
+                waveDrawable.setPlayTimeOffset(-(long) (delayMillis * 1000000));
+                waveDrawable.setPlayTime(frameClock.getPlayTimeNanos());
             }
         }
     }
 
+    /**
+     * 开始动画，暂停时从暂停的位置继续
+     */
+    void startAnimation() {
+        if (getVisibility() != VISIBLE || !visibilityTracker.isOnScreen()) {
+            return;
+        }
+        if (!clockAcquired) {
+            clockAcquired = true;
+            frameClock.acquire();
+        }
+    }
+
+    /**
+     * 暂停动画，保持每一层波浪的相位。共用的时钟在所有View都暂停后才会暂停
+     */
+    void pauseAnimation() {
+        if (clockAcquired) {
+            clockAcquired = false;
+            frameClock.release();
+        }
+    }
+
+    /**
+     * 停止动画，波浪回到初始位置
+     */
     void stopAnimation() {
+        pauseAnimation();
+        if (!frameClock.isRunning()) {
+            frameClock.stop();
+        }
         for (int i = 0; i < waveDrawables.size(); i++) {
             WaveDrawable waveDrawable = waveDrawables.get(i);
             if (waveDrawable != null) {
-                waveDrawable.stop();
+                waveDrawable.setPlayTime(0);
+            }
+        }
+        invalidate();
+    }
+
+    /**
+     * 设置动画的目标帧率，动画比较缓慢时降低帧率可以减少CPU和电量的消耗。
+     * 只影响该View，不再与其他View共用帧时钟，动画从当前位置接着播放
+     *
+     * @param targetFps 目标帧率，0表示跟随屏幕刷新率
+     */
+    public void setTargetFps(int targetFps) {
+        WaveView.WaveAttribute waveAttribute = getWaveAttributes();
+        if (waveAttribute == null) {
+            frameClock.setTargetFps(targetFps);
+            return;
+        }
+        setWaveAttributes(waveAttribute.buildUpon().setTargetFps(targetFps).build());
+    }
+
+    public int getTargetFps() {
+        return frameClock.getTargetFps();
+    }
+
+    /**
+     * 开启或关闭每一层的预渲染帧图集，低端设备上用内存换CPU，
+     * 见{@link WaveAnimationDrawable#setFrameAtlasEnabled(boolean)}
+     *
+     * @param enabled 是否开启，默认关闭
+     */
+    public void setFrameAtlasEnabled(boolean enabled) {
+        frameAtlasEnabled = enabled;
+        enabled |= qualityGovernor != null && qualityGovernor.isFrameAtlasLevel();
+        if (enabled) {
+            WaveFrameAtlasCache.getInstance().registerComponentCallbacks(getContext());
+        }
+        for (int i = 0; i < waveDrawables.size(); i++) {
+            WaveDrawable waveDrawable = waveDrawables.get(i);
+            if (waveDrawable instanceof WaveAnimationDrawable) {
+                ((WaveAnimationDrawable) waveDrawable).setFrameAtlasEnabled(enabled);
             }
         }
     }
 
+    /**
+     * 开启或关闭触摸涟漪：触摸的位置按下水面，涟漪向两侧传播并逐渐消失，
+     * 见{@link WaveAnimationDrawable#setTouchRipplesEnabled(boolean)}
+     *
+     * @param enabled 是否开启，默认关闭
+     */
+    public void setTouchRipplesEnabled(boolean enabled) {
+        touchRipplesEnabled = enabled;
+        for (int i = 0; i < waveDrawables.size(); i++) {
+            WaveDrawable waveDrawable = waveDrawables.get(i);
+            if (waveDrawable instanceof WaveAnimationDrawable) {
+                ((WaveAnimationDrawable) waveDrawable).setTouchRipplesEnabled(enabled);
+            }
+        }
+    }
+
+    public boolean isTouchRipplesEnabled() {
+        return touchRipplesEnabled;
+    }
+
+    /**
+     * 开启或关闭每一层流水线式的几何计算：绘制这一帧时，工作线程提前计算下一帧的轮廓，
+     * 层数较多时把大部分计算移出绘制线程，见{@link WaveAnimationDrawable#setPipelinedGeometryEnabled(boolean)}
+     *
+     * @param enabled 是否开启，默认关闭
+     */
+    public void setPipelinedGeometryEnabled(boolean enabled) {
+        pipelinedGeometryEnabled = enabled;
+        for (int i = 0; i < waveDrawables.size(); i++) {
+            WaveDrawable waveDrawable = waveDrawables.get(i);
+            if (waveDrawable instanceof WaveAnimationDrawable) {
+                ((WaveAnimationDrawable) waveDrawable).setPipelinedGeometryEnabled(enabled);
+            }
+        }
+    }
+
+    public boolean isPipelinedGeometryEnabled() {
+        return pipelinedGeometryEnabled;
+    }
+
+    /**
+     * 设置所有层共用的形状遮罩(圆形、圆角矩形或任意Path)，遮罩只在大小变化时渲染一次，
+     * 每帧的开销与没有遮罩时相同。有遮罩时各层的填充不再是不透明的纯色，不做遮挡裁剪
+     *
+     * @param shapeMask 遮罩，null表示不使用遮罩
+     */
+    public void setShapeMask(WaveShapeMask shapeMask) {
+        this.shapeMask = shapeMask;
+        applyShapeMask();
+    }
+
+    public WaveShapeMask getShapeMask() {
+        return shapeMask;
+    }
+
+    /**
+     * 按当前的大小设置每一层的遮罩，大小没有变化时使用缓存的位图
+     */
+    private void applyShapeMask() {
+        Bitmap mask = shapeMask != null ? shapeMask.obtainBitmap(getWidth() - getPaddingLeft() - getPaddingRight(),
+                getHeight() - getPaddingTop() - getPaddingBottom()) : null;
+        for (int i = 0; i < waveDrawables.size(); i++) {
+            WaveDrawable waveDrawable = waveDrawables.get(i);
+            if (waveDrawable != null) {
+                waveDrawable.setMask(mask);
+            }
+        }
+    }
+
+    /**
+     * 开启或关闭自适应的绘制质量：绘制耗时持续超过预算时逐级降低质量(包括只画上面一半的层)，
+     * 有余量时再恢复，见{@link WaveQualityGovernor}。关闭时恢复按配置绘制
+     *
+     * @param enabled 是否开启，默认关闭
+     */
+    public void setAdaptiveQualityEnabled(boolean enabled) {
+        if (enabled && qualityGovernor == null) {
+            qualityGovernor = new WaveQualityGovernor();
+            qualityGovernor.setTarget(qualityTarget);
+        } else if (!enabled && qualityGovernor != null) {
+            qualityGovernor.setTarget(null);
+            qualityGovernor = null;
+            applyQualityLevel();
+        }
+    }
+
+    public boolean isAdaptiveQualityEnabled() {
+        return qualityGovernor != null;
+    }
+
+    /**
+     * 获取自适应绘制质量的控制器，用于固定等级、调整预算或监听等级的变化
+     *
+     * @return 控制器，没有开启时为null
+     */
+    public WaveQualityGovernor getQualityGovernor() {
+        return qualityGovernor;
+    }
+
+    /**
+     * 按当前的质量等级设置每一层，没有开启自适应质量时恢复按配置绘制
+     */
+    private void applyQualityLevel() {
+        setFrameAtlasEnabled(frameAtlasEnabled);
+        float curveToleranceScale = qualityGovernor != null ? qualityGovernor.getCurveToleranceScale() : 1;
+        for (int i = 0; i < waveDrawables.size(); i++) {
+            WaveDrawable waveDrawable = waveDrawables.get(i);
+            if (waveDrawable instanceof WaveAnimationDrawable) {
+                ((WaveAnimationDrawable) waveDrawable).setCurveToleranceScale(curveToleranceScale);
+            }
+        }
+        invalidate();
+    }
+
+    /**
+     * 开启或关闭绘制统计，开启后可以通过{@link #getRenderStats()}获取
+     *
+     * @param enabled 是否开启，默认关闭
+     */
+    public void setRenderStatsEnabled(boolean enabled) {
+        if (enabled && renderStats == null) {
+            renderStats = new WaveRenderStats();
+        } else if (!enabled && renderStats != null) {
+            renderStats.setAllocationTracking(false);
+            renderStats = null;
+        }
+    }
+
+    public boolean isRenderStatsEnabled() {
+        return renderStats != null;
+    }
+
+    /**
+     * 统计每一帧绘制中分配的对象数，只用于调试，需要先开启绘制统计
+     *
+     * @param enabled 是否统计
+     */
+    public void setAllocationTrackingEnabled(boolean enabled) {
+        if (renderStats != null) {
+            renderStats.setAllocationTracking(enabled);
+        }
+    }
+
+    public void setOnRenderStatsListener(WaveRenderStats.OnRenderStatsListener listener) {
+        this.renderStatsListener = listener;
+    }
+
+    /**
+     * 获取当前绘制统计的快照
+     *
+     * @return 快照，没有开启统计时为null
+     */
+    public WaveRenderStats getRenderStats() {
+        if (renderStats == null) {
+            return null;
+        }
+        WaveRenderStats snapshot = new WaveRenderStats();
+        renderStats.copyTo(snapshot);
+        return snapshot;
+    }
+
+    /**
+     * 将当前的绘制统计复制到out中，用于定时上报时复用对象
+     *
+     * @param out 输出
+     * @return 是否开启了统计
+     */
+    public boolean getRenderStats(WaveRenderStats out) {
+        if (renderStats == null) {
+            return false;
+        }
+        renderStats.copyTo(out);
+        return true;
+    }
+
+    public void resetRenderStats() {
+        if (renderStats != null) {
+            renderStats.reset();
+        }
+    }
+
+    /**
+     * 测试中直接驱动帧时钟，不依赖Choreographer
+     */
+    WaveFrameClock getFrameClock() {
+        return frameClock;
+    }
+
+    /**
+     * 测试中检查每一层的状态
+     *
+     * @param layer 层的索引，0为最底层
+     */
+    WaveDrawable getLayer(int layer) {
+        return waveDrawables.get(layer);
+    }
+
     public void smoothToShow() {
         startAnimation(AnimationUtils.loadAnimation(getContext(), android.R.anim.fade_in));
         setVisibility(VISIBLE);
@@ -266,17 +820,56 @@ public class MultiWaveView extends View {
         setVisibility(GONE);
     }
 
+    /**
+     * 单独设置某一层横向流动的速度和方向
+     *
+     * @param layer     层的索引，0为最底层
+     * @param flowSpeed 速度(px/ms)，正数向右，负数向左，0表示不流动
+     */
+    public void setLayerFlowSpeed(int layer, float flowSpeed) {
+        WaveDrawable waveDrawable = waveDrawables.get(layer);
+        if (waveDrawable instanceof WaveAnimationDrawable) {
+            ((WaveAnimationDrawable) waveDrawable).setFlowSpeed(flowSpeed);
+        }
+    }
+
+    /**
+     * 更新每一层的属性：只更新变化的字段影响的部分，
+     * 动画不会重新开始，每一层保持原来的相位平滑过渡到新的属性
+     *
+     * @param waveAttribute 新的属性
+     */
     public void setWaveAttributes(WaveView.WaveAttribute waveAttribute) {
-        for (int i = 0; i < waveDrawables.size(); i++) {
+        boolean configLayers = layerColors != null && layerColors.length == waveDrawables.size();
+        WaveView.WaveAttribute oldAttribute = getWaveAttributes();
+        //由layerConfig创建的层按顶层的速度逐层缩放，顶层速度变化时重新计算(会替换setLayerFlowSpeed设置的速度)
+        boolean flowChanged = configLayers && oldAttribute != null
+                && (oldAttribute.diff(waveAttribute) & WaveView.WaveAttribute.CHANGE_FLOW) != 0;
+        //由layerConfig创建的层保持各自的颜色，顶层颜色变化时重新计算一次
+        if (configLayers && layerColors[layerColors.length - 1] != waveAttribute.waveColor) {
+            layerColors = layerConfig.resolveColors(waveAttribute.waveColor);
+        }
+        int layerCount = waveDrawables.size();
+        for (int i = 0; i < layerCount; i++) {
             WaveDrawable waveDrawable = waveDrawables.get(i);
             if (waveDrawable != null) {
-                waveDrawable.setWaveAttribute(waveAttribute);
+                waveDrawable.setWaveAttribute(configLayers
+                        ? waveAttribute.buildUpon().setWaveColor(layerColors[i]).build() : waveAttribute);
+                if (flowChanged && waveDrawable instanceof WaveAnimationDrawable) {
+                    ((WaveAnimationDrawable) waveDrawable).setFlowSpeed(
+                            getLayerFlowSpeed(waveAttribute.flowSpeed, i, layerCount));
+                }
             }
         }
+        //修改帧率时最底层的时钟可能被替换
+        bindFrameClock();
     }
 
+    /**
+     * @return 最顶层的属性，没有层时为null
+     */
     public WaveView.WaveAttribute getWaveAttributes() {
-        for (int i = 0; i < waveDrawables.size(); i++) {
+        for (int i = waveDrawables.size() - 1; i >= 0; i--) {
             WaveDrawable waveDrawable = waveDrawables.get(i);
             if (waveDrawable != null) {
                 return waveDrawable.getWaveAttribute();
@@ -284,4 +877,202 @@ public class MultiWaveView extends View {
         }
         return null;
     }
+
+    /**
+     * 多层波浪的配置，创建后不可修改，修改时通过{@link #buildUpon()}得到新的配置。
+     * 第i层(0为最底层)的初相位为-(i+1)*phaseStep，颜色从bottomColor逐层过渡到顶层的waveColor，
+     * 不透明度从bottomAlpha逐层过渡到1
+     */
+    public static final class LayerConfig {
+        static final int DEFAULT_LAYER_COUNT = 3;
+        static final float DEFAULT_PHASE_STEP_DEGREES = 45;
+        //没有设置底层颜色时，顶层颜色向白色调淡的比例
+        static final float DEFAULT_BOTTOM_LIGHTEN = 0.65f;
+        static final float DEFAULT_BOTTOM_ALPHA = 1;
+        static final float DEFAULT_STAGGER = 1;
+
+        public final int layerCount;//层数
+        public final double phaseStep;//相邻两层的初相位差(弧度)
+        public final boolean hasBottomColor;//是否设置了最底层的颜色
+        public final int bottomColor;//最底层的颜色
+        public final float bottomAlpha;//最底层的不透明度
+        public final float stagger;//各层动画时间错开的比例
+
+        private LayerConfig(int layerCount, double phaseStep, boolean hasBottomColor, int bottomColor,
+                            float bottomAlpha, float stagger) {
+            if (layerCount < 1) {
+                throw new IllegalArgumentException("layerCount must be >= 1");
+            }
+            if (!(bottomAlpha >= 0 && bottomAlpha <= 1)) {
+                throw new IllegalArgumentException("bottomAlpha must be in [0, 1]");
+            }
+            if (!(stagger >= 0)) {
+                throw new IllegalArgumentException("stagger must be >= 0");
+            }
+            this.layerCount = layerCount;
+            this.phaseStep = phaseStep;
+            this.hasBottomColor = hasBottomColor;
+            this.bottomColor = bottomColor;
+            this.bottomAlpha = bottomAlpha;
+            this.stagger = stagger;
+        }
+
+        /**
+         * 由布局中的属性创建
+         *
+         * @param context 上下文
+         * @param attrs   布局中的属性，可以为null
+         */
+        public static LayerConfig obtain(Context context, AttributeSet attrs) {
+            TypedArray a = context.obtainStyledAttributes(attrs, R.styleable.MultiWaveView);
+            Builder builder = new Builder()
+                    .setLayerCount(a.getInt(R.styleable.MultiWaveView_layer_count, DEFAULT_LAYER_COUNT))
+                    .setPhaseStep(Math.toRadians(a.getFloat(R.styleable.MultiWaveView_layer_phase_step,
+                            DEFAULT_PHASE_STEP_DEGREES)))
+                    .setBottomAlpha(a.getFloat(R.styleable.MultiWaveView_layer_bottom_alpha, DEFAULT_BOTTOM_ALPHA))
+                    .setStagger(a.getFloat(R.styleable.MultiWaveView_layer_stagger, DEFAULT_STAGGER));
+            if (a.hasValue(R.styleable.MultiWaveView_layer_bottom_color)) {
+                builder.setBottomColor(a.getColor(R.styleable.MultiWaveView_layer_bottom_color, 0));
+            }
+            a.recycle();
+            return builder.build();
+        }
+
+        public Builder buildUpon() {
+            return new Builder(this);
+        }
+
+        /**
+         * 第layer层的初相位
+         */
+        public double getLayerPhase(int layer) {
+            return -(layer + 1) * phaseStep;
+        }
+
+        /**
+         * 计算每一层的颜色，最后一层(最顶层)就是topColor
+         *
+         * @param topColor 最顶层的颜色
+         * @return 每一层的颜色，0为最底层
+         */
+        public int[] resolveColors(int topColor) {
+            int bottom = hasBottomColor ? bottomColor : lighten(topColor, DEFAULT_BOTTOM_LIGHTEN);
+            int[] colors = new int[layerCount];
+            for (int i = 0; i < layerCount; i++) {
+                //顶层的fraction为1，颜色和不透明度都与topColor相同
+                float fraction = layerCount > 1 ? (float) i / (layerCount - 1) : 1;
+                float alpha = bottomAlpha + (1 - bottomAlpha) * fraction;
+                colors[i] = Color.argb(Math.round(Color.alpha(topColor) * alpha),
+                        blend(Color.red(bottom), Color.red(topColor), fraction),
+                        blend(Color.green(bottom), Color.green(topColor), fraction),
+                        blend(Color.blue(bottom), Color.blue(topColor), fraction));
+            }
+            return colors;
+        }
+
+        private static int lighten(int color, float fraction) {
+            return Color.rgb(blend(Color.red(color), 0xFF, fraction),
+                    blend(Color.green(color), 0xFF, fraction),
+                    blend(Color.blue(color), 0xFF, fraction));
+        }
+
+        private static int blend(int from, int to, float fraction) {
+            return Math.round(from + (to - from) * fraction);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof LayerConfig)) {
+                return false;
+            }
+            LayerConfig other = (LayerConfig) o;
+            return layerCount == other.layerCount
+                    && Double.doubleToLongBits(phaseStep) == Double.doubleToLongBits(other.phaseStep)
+                    && hasBottomColor == other.hasBottomColor
+                    && bottomColor == other.bottomColor
+                    && Float.floatToIntBits(bottomAlpha) == Float.floatToIntBits(other.bottomAlpha)
+                    && Float.floatToIntBits(stagger) == Float.floatToIntBits(other.stagger);
+        }
+
+        @Override
+        public int hashCode() {
+            long phaseBits = Double.doubleToLongBits(phaseStep);
+            int result = layerCount;
+            result = 31 * result + (int) (phaseBits ^ (phaseBits >>> 32));
+            result = 31 * result + (hasBottomColor ? 1 : 0);
+            result = 31 * result + bottomColor;
+            result = 31 * result + Float.floatToIntBits(bottomAlpha);
+            result = 31 * result + Float.floatToIntBits(stagger);
+            return result;
+        }
+
+        public static final class Builder {
+            private int layerCount = DEFAULT_LAYER_COUNT;
+            private double phaseStep = Math.toRadians(DEFAULT_PHASE_STEP_DEGREES);
+            private boolean hasBottomColor;
+            private int bottomColor;
+            private float bottomAlpha = DEFAULT_BOTTOM_ALPHA;
+            private float stagger = DEFAULT_STAGGER;
+
+            public Builder() {
+            }
+
+            public Builder(LayerConfig source) {
+                this.layerCount = source.layerCount;
+                this.phaseStep = source.phaseStep;
+                this.hasBottomColor = source.hasBottomColor;
+                this.bottomColor = source.bottomColor;
+                this.bottomAlpha = source.bottomAlpha;
+                this.stagger = source.stagger;
+            }
+
+            public Builder setLayerCount(int layerCount) {
+                this.layerCount = layerCount;
+                return this;
+            }
+
+            /**
+             * @param phaseStep 相邻两层的初相位差(弧度)
+             */
+            public Builder setPhaseStep(double phaseStep) {
+                this.phaseStep = phaseStep;
+                return this;
+            }
+
+            public Builder setBottomColor(int bottomColor) {
+                this.hasBottomColor = true;
+                this.bottomColor = bottomColor;
+                return this;
+            }
+
+            /**
+             * 不设置最底层的颜色，由顶层颜色调淡
+             */
+            public Builder clearBottomColor() {
+                this.hasBottomColor = false;
+                this.bottomColor = 0;
+                return this;
+            }
+
+            public Builder setBottomAlpha(float bottomAlpha) {
+                this.bottomAlpha = bottomAlpha;
+                return this;
+            }
+
+            /**
+             * @param stagger 各层动画时间错开的比例，1为最底层滞后一个单程，0为各层同步
+             */
+            public Builder setStagger(float stagger) {
+                this.stagger = stagger;
+                return this;
+            }
+
+            public LayerConfig build() {
+                return new LayerConfig(layerCount, phaseStep, hasBottomColor, bottomColor, bottomAlpha, stagger);
+            }
+        }
+    }
 }
@@ -0,0 +1,192 @@
+package com.inkhjw.thewaveview.waveview;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Handler;
+import android.view.Choreographer;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+
+/**
+ * @author hjw
+ * 全局的波浪时钟服务：每个线程(Looper)只有一个Choreographer帧回调，
+ * 每一帧把同一个帧时间批量派发给所有正在播放的{@link WaveFrameClock}，
+ * 屏幕上有几十个波浪时也只有一次回调。
+ * 订阅使用弱引用，没有暂停就被丢弃的View和它的时钟不会因为服务而泄漏
+ */
+
+final class WaveClockService {
+    //API 16以下没有Choreographer，按固定间隔调度
+    private static final long FALLBACK_FRAME_DELAY = 16;
+
+    //主线程和渲染线程各自的服务，帧回调运行在订阅时所在的线程
+    private static final ThreadLocal<WaveClockService> services = new ThreadLocal<>();
+
+    private final ArrayList<WeakReference<WaveFrameClock>> clocks = new ArrayList<>();
+    //派发时使用的快照，只在订阅变化时重建，避免每帧创建对象。快照同样只持有弱引用
+    private final ArrayList<WeakReference<WaveFrameClock>> dispatchClocks = new ArrayList<>();
+    private boolean clocksChanged;
+    private FrameScheduler scheduler;
+
+    private WaveClockService() {
+    }
+
+    /**
+     * 当前线程的时钟服务
+     */
+    static WaveClockService getInstance() {
+        WaveClockService service = services.get();
+        if (service == null) {
+            service = new WaveClockService();
+            services.set(service);
+        }
+        return service;
+    }
+
+    /**
+     * 时钟开始或继续播放时订阅，订阅保留到{@link #unsubscribe(WaveFrameClock)}，
+     * 之后每一帧都会派发，不需要每帧重新订阅。已经订阅时不做处理
+     */
+    void subscribe(WaveFrameClock clock) {
+        if (indexOf(clock) < 0) {
+            clocks.add(new WeakReference<>(clock));
+            clocksChanged = true;
+        }
+        scheduleFrame();
+    }
+
+    /**
+     * 时钟暂停或停止时取消订阅，没有订阅的时钟时不再请求帧回调
+     */
+    void unsubscribe(WaveFrameClock clock) {
+        int index = indexOf(clock);
+        if (index >= 0) {
+            clocks.remove(index);
+            clocksChanged = true;
+        }
+        if (clocks.isEmpty() && scheduler != null) {
+            scheduler.cancel();
+        }
+    }
+
+    int getSubscriberCount() {
+        return clocks.size();
+    }
+
+    private void removeCollectedClocks() {
+        for (int i = clocks.size() - 1; i >= 0; i--) {
+            if (clocks.get(i).get() == null) {
+                clocks.remove(i);
+                clocksChanged = true;
+            }
+        }
+    }
+
+    private int indexOf(WaveFrameClock clock) {
+        for (int i = 0; i < clocks.size(); i++) {
+            if (clocks.get(i).get() == clock) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 一帧的批量派发，时钟在回调中订阅或取消订阅时，从下一帧开始生效
+     *
+     * @param frameTimeNanos 帧时间(ns)
+     */
+    void doFrame(long frameTimeNanos) {
+        if (clocksChanged) {
+            dispatchClocks.clear();
+            dispatchClocks.addAll(clocks);
+            clocksChanged = false;
+        }
+        ArrayList<WeakReference<WaveFrameClock>> dispatch = dispatchClocks;
+        for (int i = 0, count = dispatch.size(); i < count; i++) {
+            WaveFrameClock clock = dispatch.get(i).get();
+            if (clock != null) {
+                clock.doFrame(frameTimeNanos);
+            } else {
+                //时钟已经被回收(View没有暂停就被丢弃)，移除订阅
+                removeCollectedClocks();
+            }
+        }
+        if (!clocks.isEmpty()) {
+            scheduleFrame();
+        }
+    }
+
+    private void scheduleFrame() {
+        if (scheduler == null) {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+                scheduler = new ChoreographerScheduler();
+            } else {
+                scheduler = new HandlerScheduler();
+            }
+        }
+        scheduler.schedule();
+    }
+
+    private abstract class FrameScheduler {
+        boolean scheduled;
+
+        abstract void schedule();
+
+        abstract void cancel();
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private class ChoreographerScheduler extends FrameScheduler implements Choreographer.FrameCallback {
+        private final Choreographer choreographer = Choreographer.getInstance();
+
+        @Override
+        void schedule() {
+            if (!scheduled) {
+                scheduled = true;
+                choreographer.postFrameCallback(this);
+            }
+        }
+
+        @Override
+        void cancel() {
+            if (scheduled) {
+                scheduled = false;
+                choreographer.removeFrameCallback(this);
+            }
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            scheduled = false;
+            WaveClockService.this.doFrame(frameTimeNanos);
+        }
+    }
+
+    private class HandlerScheduler extends FrameScheduler implements Runnable {
+        private final Handler handler = new Handler();
+
+        @Override
+        void schedule() {
+            if (!scheduled) {
+                scheduled = true;
+                handler.postDelayed(this, FALLBACK_FRAME_DELAY);
+            }
+        }
+
+        @Override
+        void cancel() {
+            if (scheduled) {
+                scheduled = false;
+                handler.removeCallbacks(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            scheduled = false;
+            doFrame(System.nanoTime());
+        }
+    }
+}
@@ -1,120 +1,363 @@
 package com.inkhjw.thewaveview.waveview;
 
-import android.animation.ValueAnimator;
+import android.graphics.Bitmap;
+import android.graphics.BitmapShader;
 import android.graphics.Canvas;
 import android.graphics.ColorFilter;
 import android.graphics.Paint;
+import android.graphics.Path;
 import android.graphics.PixelFormat;
 import android.graphics.Rect;
+import android.graphics.Shader;
 import android.graphics.drawable.Animatable;
 import android.graphics.drawable.Drawable;
 import android.os.Build;
+import android.os.Trace;
 import android.support.annotation.ColorInt;
 
-import java.util.ArrayList;
-
 /**
  * @author hjw
  */
 
 public abstract class WaveDrawable extends Drawable implements Animatable {
+    /**
+     * 可以在多个Drawable之间共享的状态：波浪的属性、几何缓存和驱动动画的帧时钟。
+     * 画笔(颜色、透明度)、绘制范围和播放时间属于各个实例。
+     * 共享的状态只在主线程使用，修改前由{@link #ensureOwnState()}复制一份
+     */
+    protected abstract static class WaveState extends ConstantState {
+        //WaveView的自定义属性
+        protected WaveView.WaveAttribute waveAttribute;
+        //新实例画笔的模板，每个实例复制一份
+        final Paint paint;
+        //由该状态创建的Drawable共用的帧时钟，需要时才创建
+        private WaveFrameClock frameClock;
+        //时钟是否由该状态创建：复制的状态先沿用原来的时钟，动画不会因为修改配置而跳变
+        private boolean ownsFrameClock;
+        //状态已经交给其他Drawable使用(getConstantState)，不能再直接修改
+        boolean shared;
+
+        protected WaveState(WaveView.WaveAttribute waveAttribute, Paint paint) {
+            this.waveAttribute = waveAttribute;
+            if (paint != null) {
+                this.paint = new Paint(paint);
+            } else {
+                this.paint = new Paint();
+                this.paint.setColor(waveAttribute.waveColor);
+                this.paint.setAntiAlias(true);
+                this.paint.setStyle(Paint.Style.FILL);
+            }
+        }
+
+        /**
+         * 复制配置，帧时钟与原来的状态共用，缓存由子类决定是否复制
+         */
+        protected WaveState(WaveState orig) {
+            this.waveAttribute = orig.waveAttribute;
+            this.paint = new Paint(orig.paint);
+            this.frameClock = orig.frameClock;
+        }
+
+        /**
+         * @return 配置相同、不共享缓存的新状态
+         */
+        protected abstract WaveState copy();
+
+        public WaveView.WaveAttribute getWaveAttribute() {
+            return waveAttribute;
+        }
+
+        WaveFrameClock getFrameClock() {
+            if (frameClock == null) {
+                frameClock = new WaveFrameClock();
+                frameClock.setTargetFps(waveAttribute.targetFps);
+                ownsFrameClock = true;
+            }
+            return frameClock;
+        }
+
+        /**
+         * 修改帧率：自己的时钟直接修改，沿用的时钟换成新的时钟，从原来的playTime接着播放
+         */
+        void setTargetFps(int targetFps) {
+            if (frameClock != null && !ownsFrameClock) {
+                WaveFrameClock clock = new WaveFrameClock();
+                clock.seek(frameClock.getPlayTimeNanos());
+                frameClock = clock;
+                ownsFrameClock = true;
+            }
+            getFrameClock().setTargetFps(targetFps);
+        }
+
+        @Override
+        public int getChangingConfigurations() {
+            return 0;
+        }
+    }
+
+    private WaveState waveState;
     private Paint mPaint;
-    //WaveView的自定义属性
+    //该实例的属性，颜色和纵向动画只影响自己，与状态中的属性可以不同
     private WaveView.WaveAttribute waveAttribute;
-    //该Drawable的所有动画监听
-    ArrayList<ValueAnimator.AnimatorUpdateListener> updateListeners = new ArrayList<>();
 
-    private static final Rect ZERO_BOUNDS_RECT = new Rect();
-    protected Rect drawBounds = ZERO_BOUNDS_RECT;
+    //绘制范围，边界变化时原地修改，不重新创建
+    protected final Rect drawBounds = new Rect();
+    //每一帧会变化的区域(波浪带)，原地修改
+    private final Rect dirtyBounds = new Rect();
+    //绘制时复用的Path，由Drawable持有，每一帧重置后使用
+    private final Path drawPath = new Path();
+    //形状遮罩，作为画笔的shader
+    private Bitmap maskBitmap;
+
+    //单独使用(没有View统一驱动)时监听的帧时钟
+    private WaveFrameClock selfFrameClock;
+    private boolean selfClockAcquired;
+    //该Drawable相对于时钟的时间偏移(ns)，用于多层波浪的错开
+    private long playTimeOffsetNanos;
+    //最近一次设置的动画时间(已包含时间偏移)
+    private long playTimeNanos;
 
-    private ValueAnimator animator;
+    //上一次绘制时的渲染状态，帧回调中与当前状态比较，画面没有变化时跳过重绘
+    private boolean rendered;
+    private long renderedAnimationKey;
+    private final Rect renderedBounds = new Rect();
+    private int renderedColor;
+    private ColorFilter renderedColorFilter;
+    private final WaveFrameClock.OnFrameListener selfFrameListener = new WaveFrameClock.OnFrameListener() {
+        @Override
+        public void onFrame(long playTimeNanos) {
+            setPlayTime(playTimeNanos);
+            if (isRenderStateChanged()) {
+                invalidateSelf();
+            }
+        }
+    };
 
-    public WaveDrawable() {
-        waveAttribute = new WaveView.WaveAttribute();
-        mPaint = new Paint();
-        mPaint.setColor(waveAttribute.waveColor);
-        mPaint.setAntiAlias(true);
-        mPaint.setStyle(Paint.Style.FILL);
+    /**
+     * @param waveState 状态，可能与其他Drawable共用
+     * @param paint     该实例的画笔，为null时使用状态中的画笔
+     */
+    protected WaveDrawable(WaveState waveState, Paint paint) {
+        this.waveState = waveState;
+        this.mPaint = new Paint(paint != null ? paint : waveState.paint);
+        this.waveAttribute = waveState.waveAttribute;
     }
 
-    public WaveDrawable(WaveView.WaveAttribute waveAttribute, Paint mPaint) {
-        this.waveAttribute = waveAttribute;
-        this.mPaint = new Paint(mPaint);
+    /**
+     * 该实例的画笔
+     */
+    protected Paint getPaint() {
+        return mPaint;
+    }
+
+    protected WaveState getWaveState() {
+        return waveState;
+    }
+
+    /**
+     * 返回的状态可以创建共用几何缓存和帧时钟的Drawable，之后修改配置时该Drawable会先复制一份状态
+     */
+    @Override
+    public ConstantState getConstantState() {
+        waveState.shared = true;
+        return waveState;
+    }
+
+    /**
+     * 之后对配置的修改只影响该Drawable，不影响共用状态的其他Drawable
+     */
+    @Override
+    public Drawable mutate() {
+        if (super.mutate() == this) {
+            ensureOwnState();
+        }
+        return this;
+    }
+
+    /**
+     * 修改状态之前调用：状态与其他Drawable共用时复制一份，之后只修改自己的
+     */
+    protected void ensureOwnState() {
+        if (waveState.shared) {
+            waveState = waveState.copy();
+        }
+    }
+
+    /**
+     * 状态的帧时钟，共用状态的Drawable(如列表中配置相同的View)跟随同一个时钟，
+     * 每一帧的播放时间相同，几何计算只做一次
+     */
+    public WaveFrameClock getFrameClock() {
+        return waveState.getFrameClock();
     }
 
     @Override
     public void draw(Canvas canvas) {
         draw(canvas, mPaint);
+        markRendered();
+    }
+
+    /**
+     * 记录当前的渲染状态。没有调用draw(如多层绘制时被上层完全遮挡)时也可以调用，
+     * 表示当前状态的画面已经在屏幕上
+     */
+    public void markRendered() {
+        rendered = true;
+        renderedAnimationKey = getAnimationStateKey();
+        renderedBounds.set(drawBounds);
+        renderedColor = mPaint.getColor();
+        renderedColorFilter = mPaint.getColorFilter();
     }
 
+    /**
+     * 与上一次绘制相比画面是否可能变化：动画状态、绘制范围、颜色(包括透明度)和颜色过滤。
+     * 帧回调中返回false时不需要重绘
+     */
+    public boolean isRenderStateChanged() {
+        return !rendered
+                || renderedAnimationKey != getAnimationStateKey()
+                || !renderedBounds.equals(drawBounds)
+                || renderedColor != mPaint.getColor()
+                || renderedColorFilter != mPaint.getColorFilter();
+    }
+
+    /**
+     * 动画状态(偏移、相位等)的紧凑表示，相同时绘制出的画面相同。
+     * 默认为动画时间，即每一帧都重绘
+     */
+    protected long getAnimationStateKey() {
+        return playTimeNanos;
+    }
+
+    /**
+     * 每一帧都会调用，实现中不应创建任何对象：
+     * Path通过{@link #obtainPath()}获取，坐标使用基本类型计算，
+     * 临时的Rect/RectF等作为成员变量原地修改。
+     *
+     * @param canvas 画布
+     * @param paint  该Drawable的画笔
+     */
     public abstract void draw(Canvas canvas, Paint paint);
 
-    public abstract ValueAnimator onCreateAnimator();
+    /**
+     * 上一次绘制中所有Path的顶点数，用于绘制统计
+     *
+     * @return 顶点数，不使用Path时为0
+     */
+    public int getLastVertexCount() {
+        return 0;
+    }
 
-    @Override
-    public void start() {
-        ensureAnimator();
-        if (animator == null) {
-            throw new NullPointerException("onCreateAnimator return is null");
+    /**
+     * 开始一段systrace区间，与{@link #endTraceSection()}配对
+     *
+     * @param sectionName 区间名称，使用常量避免创建字符串
+     */
+    protected static void beginTraceSection(String sectionName) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            Trace.beginSection(sectionName);
         }
+    }
 
-        // If the animators has not ended, do nothing.
-        if (isRunning()) {
-            return;
+    protected static void endTraceSection() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            Trace.endSection();
         }
-        startAnimators();
-        invalidateSelf();
     }
 
-    @Override
-    public void stop() {
-        if (animator == null) {
-            return;
-        }
-        stopAnimators();
+    /**
+     * 获取重置后的绘制Path，Path为该Drawable持有并在每一帧复用
+     *
+     * @return 已重置的Path
+     */
+    protected Path obtainPath() {
+        drawPath.rewind();
+        return drawPath;
+    }
+
+    /**
+     * 根据动画经过的时间更新波浪的状态(偏移、相位等)，只更新状态，不负责重绘
+     *
+     * @param playTimeNanos 动画经过的时间(ns)，已包含该Drawable的时间偏移，可能为负数
+     */
+    protected abstract void onPlayTimeChanged(long playTimeNanos);
+
+    /**
+     * 由外部的时钟(如WaveView、MultiWaveView统一的帧回调)设置动画时间
+     *
+     * @param playTimeNanos 动画经过的时间(ns)
+     */
+    public void setPlayTime(long playTimeNanos) {
+        this.playTimeNanos = playTimeNanos + playTimeOffsetNanos;
+        onPlayTimeChanged(this.playTimeNanos);
+    }
+
+    /**
+     * 最近一次设置的动画时间(ns)，已包含时间偏移
+     */
+    protected long getPlayTimeNanos() {
+        return playTimeNanos;
+    }
+
+    /**
+     * 设置相对于时钟的时间偏移，多层波浪通过不同的偏移错开，而不是延时开启动画
+     *
+     * @param playTimeOffsetNanos 时间偏移(ns)
+     */
+    public void setPlayTimeOffset(long playTimeOffsetNanos) {
+        this.playTimeOffsetNanos = playTimeOffsetNanos;
+    }
+
+    public long getPlayTimeOffset() {
+        return playTimeOffsetNanos;
     }
 
     @Override
-    public boolean isRunning() {
-        if (animator == null) {
-            return false;
-        }
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
-            return animator.isStarted() || animator.isRunning();
+    public void start() {
+        if (selfFrameClock == null) {
+            selfFrameClock = getFrameClock();
+            selfFrameClock.addFrameListener(selfFrameListener);
         }
-        return animator.isRunning();
+        resume();
+        invalidateSelf();
     }
 
-    private void startAnimators() {
-        for (int i = 0; i < updateListeners.size(); i++) {
-            ValueAnimator.AnimatorUpdateListener updateListener = updateListeners.get(i);
-            if (updateListener != null) {
-                animator.addUpdateListener(updateListener);
-            }
+    /**
+     * 停止动画，时钟没有其他使用者时播放时间归0
+     */
+    @Override
+    public void stop() {
+        if (selfFrameClock == null) {
+            return;
+        }
+        pause();
+        selfFrameClock.removeFrameListener(selfFrameListener);
+        if (!selfFrameClock.isRunning()) {
+            selfFrameClock.stop();
         }
-        animator.start();
+        selfFrameClock = null;
     }
 
-    private void stopAnimators() {
-        if (animator.isRunning()) {
-            animator.removeAllUpdateListeners();
-            animator.end();
+    /**
+     * 暂停动画，继续时波浪从当前位置接着运动
+     */
+    public void pause() {
+        if (selfClockAcquired) {
+            selfClockAcquired = false;
+            selfFrameClock.release();
         }
     }
 
-    private void ensureAnimator() {
-        if (animator == null) {
-            animator = onCreateAnimator();
+    public void resume() {
+        if (selfFrameClock != null && !selfClockAcquired) {
+            selfClockAcquired = true;
+            selfFrameClock.acquire();
         }
     }
 
-    /**
-     * child View must use this addUpdateListener
-     *
-     * @param updateListener
-     */
-    public void addUpdateListener(ValueAnimator.AnimatorUpdateListener updateListener) {
-        this.updateListeners.add(updateListener);
+    @Override
+    public boolean isRunning() {
+        return selfClockAcquired && selfFrameClock.isRunning();
     }
 
     @Override
@@ -128,17 +371,76 @@ public abstract class WaveDrawable extends Drawable implements Animatable {
     }
 
     public void setDrawBounds(int left, int top, int right, int bottom) {
-        this.drawBounds = new Rect(left, top, right, bottom);
+        this.drawBounds.set(left, top, right, bottom);
     }
 
+    /**
+     * 按变化的字段更新：只改颜色时只重绘，不复制状态也不重建几何；
+     * 纵向动画的变化只影响该实例；几何、流动速度和帧率的变化才复制状态。
+     * 动画不会重新开始，子类在{@link #onWaveAttributeChanged}中平滑过渡到新的属性
+     *
+     * @param waveAttribute 新的属性
+     */
     public void setWaveAttribute(WaveView.WaveAttribute waveAttribute) {
+        int changes = this.waveAttribute.diff(waveAttribute);
+        if (changes == 0) {
+            return;
+        }
+        WaveView.WaveAttribute oldAttribute = this.waveAttribute;
         this.waveAttribute = waveAttribute;
+        if ((changes & (WaveView.WaveAttribute.CHANGE_GEOMETRY | WaveView.WaveAttribute.CHANGE_FLOW
+                | WaveView.WaveAttribute.CHANGE_FRAME_RATE)) != 0) {
+            ensureOwnState();
+            waveState.waveAttribute = this.waveAttribute;
+            if ((changes & WaveView.WaveAttribute.CHANGE_FRAME_RATE) != 0) {
+                waveState.setTargetFps(this.waveAttribute.targetFps);
+            }
+        }
+        if ((changes & WaveView.WaveAttribute.CHANGE_COLOR) != 0) {
+            mPaint.setColor(this.waveAttribute.waveColor);
+        }
+        onWaveAttributeChanged(oldAttribute, this.waveAttribute, changes);
+        invalidateSelf();
     }
 
+    /**
+     * 属性变化后回调，用于只更新受影响的部分
+     *
+     * @param oldAttribute 原来的属性
+     * @param newAttribute 新的属性
+     * @param changes      变化的字段分组，见{@link WaveView.WaveAttribute#diff(WaveView.WaveAttribute)}
+     */
+    protected void onWaveAttributeChanged(WaveView.WaveAttribute oldAttribute, WaveView.WaveAttribute newAttribute,
+                                          int changes) {
+    }
+
+    /**
+     * 属性不可修改，通过{@link WaveView.WaveAttribute#buildUpon()}得到新的属性后再设置
+     */
     public WaveView.WaveAttribute getWaveAttribute() {
         return waveAttribute;
     }
 
+    /**
+     * 动画时只有波浪带会变化，用于判断触摸是否落在波浪上
+     *
+     * @return 每一帧会变化的区域，返回的Rect由Drawable持有，不要修改
+     */
+    @Override
+    public Rect getDirtyBounds() {
+        computeDirtyBounds(dirtyBounds);
+        return dirtyBounds;
+    }
+
+    /**
+     * 计算每一帧会变化的区域，默认为整个绘制范围
+     *
+     * @param outRect 输出的区域
+     */
+    protected void computeDirtyBounds(Rect outRect) {
+        outRect.set(drawBounds);
+    }
+
     @Override
     public int getIntrinsicWidth() {
         return drawBounds.width();
@@ -166,7 +468,56 @@ public abstract class WaveDrawable extends Drawable implements Animatable {
         return PixelFormat.TRANSLUCENT;
     }
 
+    /**
+     * 画笔是否为不透明的纯色填充，只有这种情况下才能遮挡下面的层
+     */
+    public boolean isOpaqueFill() {
+        return mPaint.getAlpha() == 255
+                && mPaint.getColorFilter() == null
+                && mPaint.getXfermode() == null
+                && mPaint.getShader() == null;
+    }
+
+    /**
+     * 从返回的y坐标开始到底部，该Drawable的填充完全覆盖绘制范围(不考虑画笔透明度)。
+     * 多层绘制时，上层的这部分区域不需要再画下层
+     *
+     * @return 完全覆盖区域的顶部，没有完全覆盖的区域时返回drawBounds.bottom
+     */
+    public float getCoveredTop() {
+        return drawBounds.bottom;
+    }
+
+    /**
+     * 设置形状遮罩(见{@link WaveShapeMask})：遮罩作为画笔的BitmapShader，填充的颜色乘以遮罩的透明度，
+     * 不需要每帧clipPath。遮罩的坐标与绘制坐标相同，有遮罩时不再遮挡下面的层
+     *
+     * @param mask ALPHA_8的遮罩，null表示不使用遮罩
+     */
+    public void setMask(Bitmap mask) {
+        if (maskBitmap == mask) {
+            return;
+        }
+        maskBitmap = mask;
+        mPaint.setShader(mask != null ? new BitmapShader(mask, Shader.TileMode.CLAMP, Shader.TileMode.CLAMP) : null);
+        invalidateSelf();
+    }
+
+    public Bitmap getMask() {
+        return maskBitmap;
+    }
+
+    /**
+     * 在(x, y)处扰动波浪，如触摸产生的涟漪，默认不处理。
+     * 坐标与绘制时的画布坐标相同
+     */
+    public void disturb(float x, float y) {
+    }
+
     public void setPaintColor(@ColorInt int color) {
+        if (mPaint.getColor() == color) {
+            return;
+        }
         mPaint.setColor(color);
         invalidateSelf();
     }
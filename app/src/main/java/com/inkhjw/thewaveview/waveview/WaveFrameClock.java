@@ -0,0 +1,256 @@
+package com.inkhjw.thewaveview.waveview;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+
+/**
+ * @author hjw
+ * 波浪动画的帧时钟，由{@link WaveClockService}每一帧统一派发的帧时间驱动，
+ * 代替每个Drawable各自的ValueAnimator。
+ * 时钟只负责给出动画经过的时间(playTime)，波浪的偏移和相位由各个Drawable根据时间计算，
+ * 多层波浪的错开也只是时间上的偏移(见{@link WaveDrawable#setPlayTimeOffset(long)})。
+ * 暂停后继续时playTime保持连续，不会产生跳变。
+ * 监听使用弱引用，调用者需要自己持有监听对象，被丢弃的View不会因为共用的时钟而泄漏
+ */
+
+public class WaveFrameClock {
+    public interface OnFrameListener {
+        /**
+         * 每一帧回调一次
+         *
+         * @param playTimeNanos 动画经过的时间(ns)，不包含暂停的时间
+         */
+        void onFrame(long playTimeNanos);
+    }
+
+    private final ArrayList<WeakReference<OnFrameListener>> listeners = new ArrayList<>();
+    //派发时使用的快照，只在监听变化时重建，避免每帧创建对象
+    private final ArrayList<WeakReference<OnFrameListener>> dispatchListeners = new ArrayList<>();
+    private boolean listenersChanged;
+
+    private boolean running;
+    private boolean paused;
+    //playTime为0时对应的帧时间，-1表示等待下一帧重新确定
+    private long startTimeNanos = -1;
+    private long playTimeNanos;
+
+    //目标帧率，0表示跟随屏幕刷新率
+    private int targetFps;
+    private long frameIntervalNanos;
+    //上一次派发的帧时间，-1表示下一帧直接派发
+    private long lastDispatchNanos = -1;
+    //因为目标帧率跳过的帧数
+    private int skippedFrames;
+    private int lastSkippedFrames;
+    //共用时钟时需要动画的使用者数量
+    private int users;
+
+    //所在线程的时钟服务，开始播放时确定
+    private WaveClockService service;
+    //是否已经订阅了服务的帧回调
+    private boolean subscribed;
+
+    /**
+     * 添加监听，时钟只持有监听的弱引用
+     */
+    public void addFrameListener(OnFrameListener listener) {
+        if (indexOf(listener) < 0) {
+            listeners.add(new WeakReference<>(listener));
+            listenersChanged = true;
+        }
+    }
+
+    public void removeFrameListener(OnFrameListener listener) {
+        int index = indexOf(listener);
+        if (index >= 0) {
+            listeners.remove(index);
+            listenersChanged = true;
+        }
+    }
+
+    private int indexOf(OnFrameListener listener) {
+        for (int i = 0; i < listeners.size(); i++) {
+            if (listeners.get(i).get() == listener) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 设置目标帧率，屏幕刷新率更高(如90/120Hz)时跳过多余的帧。
+     * playTime仍然按实际的帧时间计算，跳帧不会影响动画的速度
+     *
+     * @param targetFps 目标帧率，0表示跟随屏幕刷新率
+     */
+    public void setTargetFps(int targetFps) {
+        if (targetFps < 0) {
+            throw new IllegalArgumentException("targetFps must be >= 0");
+        }
+        this.targetFps = targetFps;
+        this.frameIntervalNanos = targetFps > 0 ? 1000000000L / targetFps : 0;
+    }
+
+    public int getTargetFps() {
+        return targetFps;
+    }
+
+    /**
+     * 从当前的playTime(新建或停止后为0)开始播放，已经在播放时不做处理，暂停时继续播放
+     */
+    public void start() {
+        if (running) {
+            resume();
+            return;
+        }
+        running = true;
+        paused = false;
+        startTimeNanos = -1;
+        lastDispatchNanos = -1;
+        scheduleFrame();
+    }
+
+    /**
+     * 多个View/Drawable共用时钟时使用：增加一个需要动画的使用者，
+     * 第一个使用者开始播放(暂停时继续播放)
+     */
+    public void acquire() {
+        if (users++ == 0) {
+            start();
+        }
+    }
+
+    /**
+     * 与{@link #acquire()}配对，最后一个使用者释放后暂停，保留当前的playTime
+     */
+    public void release() {
+        if (users > 0 && --users == 0) {
+            pause();
+        }
+    }
+
+    /**
+     * 停止播放，playTime归0
+     */
+    public void stop() {
+        running = false;
+        paused = false;
+        playTimeNanos = 0;
+        startTimeNanos = -1;
+        cancelFrame();
+    }
+
+    /**
+     * 暂停播放，保留当前的playTime
+     */
+    public void pause() {
+        if (!running || paused) {
+            return;
+        }
+        paused = true;
+        cancelFrame();
+    }
+
+    /**
+     * 从暂停时的playTime继续播放
+     */
+    public void resume() {
+        if (!running || !paused) {
+            return;
+        }
+        paused = false;
+        startTimeNanos = -1;
+        lastDispatchNanos = -1;
+        scheduleFrame();
+    }
+
+    public boolean isStarted() {
+        return running;
+    }
+
+    public boolean isRunning() {
+        return running && !paused;
+    }
+
+    public boolean isPaused() {
+        return running && paused;
+    }
+
+    public long getPlayTimeNanos() {
+        return playTimeNanos;
+    }
+
+    /**
+     * 跳到指定的playTime，播放中时下一帧从这个时间接着走。
+     * 用于替换时钟(如修改帧率)时保持动画连续
+     *
+     * @param playTimeNanos 动画经过的时间(ns)
+     */
+    public void seek(long playTimeNanos) {
+        this.playTimeNanos = playTimeNanos;
+        startTimeNanos = -1;
+    }
+
+    /**
+     * 当前这一帧之前因为目标帧率跳过的帧数，在帧回调中读取
+     */
+    public int getLastSkippedFrames() {
+        return lastSkippedFrames;
+    }
+
+    void doFrame(long frameTimeNanos) {
+        if (!isRunning()) {
+            return;
+        }
+        if (startTimeNanos < 0) {
+            startTimeNanos = frameTimeNanos - playTimeNanos;
+        }
+        //限制帧率：距离上一次派发不足一个间隔时跳过这一帧(允许1/4间隔的抖动)
+        if (frameIntervalNanos > 0 && lastDispatchNanos >= 0
+                && frameTimeNanos - lastDispatchNanos < frameIntervalNanos - frameIntervalNanos / 4) {
+            skippedFrames++;
+            return;
+        }
+        lastDispatchNanos = frameTimeNanos;
+        lastSkippedFrames = skippedFrames;
+        skippedFrames = 0;
+        playTimeNanos = frameTimeNanos - startTimeNanos;
+
+        if (listenersChanged) {
+            dispatchListeners.clear();
+            dispatchListeners.addAll(listeners);
+            listenersChanged = false;
+        }
+        ArrayList<WeakReference<OnFrameListener>> dispatch = dispatchListeners;
+        for (int i = 0, count = dispatch.size(); i < count; i++) {
+            OnFrameListener listener = dispatch.get(i).get();
+            if (listener != null) {
+                listener.onFrame(playTimeNanos);
+            } else {
+                //监听已经被回收，下一帧重建快照
+                removeFrameListener(null);
+            }
+        }
+    }
+
+    /**
+     * 开始或继续播放时订阅一次，订阅一直保留到暂停或停止，服务每一帧都会派发
+     */
+    private void scheduleFrame() {
+        if (subscribed) {
+            return;
+        }
+        if (service == null) {
+            service = WaveClockService.getInstance();
+        }
+        subscribed = true;
+        service.subscribe(this);
+    }
+
+    private void cancelFrame() {
+        if (subscribed) {
+            subscribed = false;
+            service.unsubscribe(this);
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package com.inkhjw.thewaveview.waveview;
+
+/**
+ * @author hjw
+ * 自适应的绘制质量：统计每一帧波浪的绘制耗时，持续超过预算时逐级降低质量，
+ * 长时间有余量时再逐级恢复。降级快、升级慢，升级后很快又降级时加倍升级需要的帧数，避免来回切换。
+ * 质量等级从高到低依次叠加：粗略的曲线拟合、减少层数、降低帧率、预渲染的帧图集。
+ * 耗时为onDraw中记录绘制命令的时间(硬件加速时不包括GPU的时间)，记录时不创建任何对象
+ */
+
+public class WaveQualityGovernor {
+    /**
+     * 质量等级变化的回调，在绘制的线程中调用
+     */
+    public interface OnQualityChangeListener {
+        void onQualityChanged(int oldLevel, int newLevel);
+    }
+
+    //不固定等级，由绘制耗时决定
+    public static final int LEVEL_AUTO = -1;
+    //按配置绘制
+    public static final int LEVEL_FULL = 0;
+    //贝塞尔拟合的误差放大，每个波长的曲线段更少，逐像素折线改为贝塞尔拟合
+    public static final int LEVEL_COARSE_CURVES = 1;
+    //多层波浪只画上面一半的层
+    public static final int LEVEL_FEWER_LAYERS = 2;
+    //帧率降到LOW_FPS
+    public static final int LEVEL_LOW_FPS = 3;
+    //使用预渲染的帧图集
+    public static final int LEVEL_FRAME_ATLAS = 4;
+    public static final int MAX_LEVEL = LEVEL_FRAME_ATLAS;
+
+    //默认每一帧波浪的绘制预算，60fps的帧间隔中只占一小部分
+    public static final long DEFAULT_FRAME_BUDGET_NANOS = 4000000L;
+    //粗略曲线时误差的放大倍数
+    static final float COARSE_CURVE_TOLERANCE_SCALE = 4;
+    static final int LOW_FPS = 30;
+    private static final long LOW_FPS_INTERVAL_NANOS = 1000000000L / LOW_FPS;
+
+    //平均耗时连续超过预算多少帧后降级
+    private static final int DEGRADE_FRAMES = 30;
+    //平均耗时连续低于预算的一半多少帧后升级，升级后很快又降级时加倍，最多加倍到MAX_UPGRADE_FRAMES
+    private static final int UPGRADE_FRAMES = 300;
+    private static final int MAX_UPGRADE_FRAMES = 2400;
+    private static final float UPGRADE_HEADROOM = 0.5f;
+    //等级变化后至少等待的帧数，新等级的耗时稳定后才继续判断
+    private static final int COOLDOWN_FRAMES = 60;
+    //平均耗时(指数移动平均)中新一帧的权重
+    private static final float AVERAGE_WEIGHT = 0.1f;
+
+    private long frameBudgetNanos = DEFAULT_FRAME_BUDGET_NANOS;
+    private int level = LEVEL_FULL;
+    private int pinnedLevel = LEVEL_AUTO;
+    private float averageDrawNanos = -1;
+    private int overBudgetFrames;
+    private int underBudgetFrames;
+    private int framesSinceChange;
+    private int upgradeFrames = UPGRADE_FRAMES;
+    private boolean lastChangeWasUpgrade;
+    //降低帧率时上一次绘制的动画时间
+    private long lastFramePlayTimeNanos = -1;
+
+    private OnQualityChangeListener listener;
+    //应用等级的View
+    private OnQualityChangeListener target;
+
+    /**
+     * 设置每一帧波浪绘制的预算，平均耗时持续超过时降级
+     *
+     * @param frameBudgetNanos 预算(ns)
+     */
+    public void setFrameBudgetNanos(long frameBudgetNanos) {
+        if (frameBudgetNanos <= 0) {
+            throw new IllegalArgumentException("frameBudgetNanos must be > 0");
+        }
+        this.frameBudgetNanos = frameBudgetNanos;
+    }
+
+    public long getFrameBudgetNanos() {
+        return frameBudgetNanos;
+    }
+
+    /**
+     * 固定质量等级，不再根据耗时调整
+     *
+     * @param pinnedLevel LEVEL_FULL ~ MAX_LEVEL，{@link #LEVEL_AUTO}表示恢复自动调整
+     */
+    public void pinLevel(int pinnedLevel) {
+        if (pinnedLevel < LEVEL_AUTO || pinnedLevel > MAX_LEVEL) {
+            throw new IllegalArgumentException("unknown quality level: " + pinnedLevel);
+        }
+        this.pinnedLevel = pinnedLevel;
+        if (pinnedLevel != LEVEL_AUTO) {
+            changeLevel(pinnedLevel);
+        }
+        resetCounters();
+    }
+
+    public int getPinnedLevel() {
+        return pinnedLevel;
+    }
+
+    /**
+     * 当前的质量等级
+     */
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * 最近绘制耗时的平均值(ns)，还没有记录时为-1
+     */
+    public float getAverageDrawTimeNanos() {
+        return averageDrawNanos;
+    }
+
+    public void setOnQualityChangeListener(OnQualityChangeListener listener) {
+        this.listener = listener;
+    }
+
+    void setTarget(OnQualityChangeListener target) {
+        this.target = target;
+    }
+
+    /**
+     * 记录一帧的绘制耗时，需要时调整等级
+     *
+     * @param drawTimeNanos 绘制耗时(ns)
+     */
+    public void onFrameDrawn(long drawTimeNanos) {
+        averageDrawNanos = averageDrawNanos < 0 ? drawTimeNanos
+                : averageDrawNanos + (drawTimeNanos - averageDrawNanos) * AVERAGE_WEIGHT;
+        if (pinnedLevel != LEVEL_AUTO) {
+            return;
+        }
+        framesSinceChange++;
+        if (averageDrawNanos > frameBudgetNanos) {
+            overBudgetFrames++;
+            underBudgetFrames = 0;
+        } else if (averageDrawNanos < frameBudgetNanos * UPGRADE_HEADROOM) {
+            underBudgetFrames++;
+            overBudgetFrames = 0;
+        } else {
+            overBudgetFrames = 0;
+            underBudgetFrames = 0;
+        }
+        if (framesSinceChange < COOLDOWN_FRAMES) {
+            return;
+        }
+        if (overBudgetFrames >= DEGRADE_FRAMES && level < MAX_LEVEL) {
+            //刚升级就超过预算，说明上一级的余量不稳定，下一次升级等待更久
+            if (lastChangeWasUpgrade && framesSinceChange < upgradeFrames) {
+                upgradeFrames = Math.min(upgradeFrames * 2, MAX_UPGRADE_FRAMES);
+            }
+            lastChangeWasUpgrade = false;
+            changeLevel(level + 1);
+            resetCounters();
+        } else if (underBudgetFrames >= upgradeFrames && level > LEVEL_FULL) {
+            lastChangeWasUpgrade = true;
+            changeLevel(level - 1);
+            resetCounters();
+        }
+    }
+
+    /**
+     * 降低帧率的等级中，距离上一次绘制不足一个间隔的帧跳过(允许1/4间隔的抖动)
+     *
+     * @param playTimeNanos 这一帧的动画时间
+     * @return 是否更新和绘制这一帧
+     */
+    public boolean shouldDrawFrame(long playTimeNanos) {
+        if (level < LEVEL_LOW_FPS) {
+            lastFramePlayTimeNanos = -1;
+            return true;
+        }
+        if (lastFramePlayTimeNanos >= 0 && playTimeNanos >= lastFramePlayTimeNanos
+                && playTimeNanos - lastFramePlayTimeNanos < LOW_FPS_INTERVAL_NANOS - LOW_FPS_INTERVAL_NANOS / 4) {
+            return false;
+        }
+        lastFramePlayTimeNanos = playTimeNanos;
+        return true;
+    }
+
+    /**
+     * 当前等级下贝塞尔拟合误差的放大倍数
+     */
+    float getCurveToleranceScale() {
+        return level >= LEVEL_COARSE_CURVES ? COARSE_CURVE_TOLERANCE_SCALE : 1;
+    }
+
+    /**
+     * 当前等级下绘制的层数
+     *
+     * @param layerCount 配置的层数
+     */
+    int getVisibleLayerCount(int layerCount) {
+        return level >= LEVEL_FEWER_LAYERS ? Math.max(1, (layerCount + 1) / 2) : layerCount;
+    }
+
+    boolean isFrameAtlasLevel() {
+        return level >= LEVEL_FRAME_ATLAS;
+    }
+
+    private void changeLevel(int newLevel) {
+        if (level == newLevel) {
+            return;
+        }
+        int oldLevel = level;
+        level = newLevel;
+        //新等级的耗时重新统计
+        averageDrawNanos = -1;
+        if (target != null) {
+            target.onQualityChanged(oldLevel, newLevel);
+        }
+        if (listener != null) {
+            listener.onQualityChanged(oldLevel, newLevel);
+        }
+    }
+
+    private void resetCounters() {
+        overBudgetFrames = 0;
+        underBudgetFrames = 0;
+        framesSinceChange = 0;
+    }
+}
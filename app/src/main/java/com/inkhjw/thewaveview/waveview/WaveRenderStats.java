@@ -0,0 +1,255 @@
+package com.inkhjw.thewaveview.waveview;
+
+import android.os.Debug;
+
+/**
+ * @author hjw
+ * 波浪绘制的运行时统计，用于上报到自己的监控中，找出波浪造成卡顿的设备。
+ * 所有数据使用固定大小的直方图和计数器，记录时不创建任何对象。
+ * 不是线程安全的，只在绘制的线程中记录和读取
+ */
+
+public class WaveRenderStats {
+    /**
+     * 每一帧绘制完成后回调，stats为正在记录的对象，需要保存时使用{@link #copyTo(WaveRenderStats)}
+     */
+    public interface OnRenderStatsListener {
+        void onFrameRendered(WaveRenderStats stats);
+    }
+
+    //绘制耗时直方图的上界(ns)，最后一个桶为超过16ms的帧
+    private static final long[] DRAW_TIME_BOUNDS_NANOS = {
+            250000L, 500000L, 1000000L, 2000000L, 4000000L, 8000000L, 16000000L
+    };
+    //顶点数直方图的上界，最后一个桶为超过4096个顶点的帧
+    private static final int[] VERTEX_COUNT_BOUNDS = {64, 256, 1024, 4096};
+
+    private final long[] drawTimeHistogram = new long[DRAW_TIME_BOUNDS_NANOS.length + 1];
+    private final long[] vertexCountHistogram = new long[VERTEX_COUNT_BOUNDS.length + 1];
+    private long frameCount;
+    private long totalDrawTimeNanos;
+    private long maxDrawTimeNanos;
+    private int lastVertexCount;
+    private long framesSkipped;
+    private long clockCallbacks;
+    private long framesSuppressed;
+    private long allocations;
+
+    //统计分配的对象数，开销较大，只在调试时开启
+    private boolean allocationTracking;
+    private long frameStartNanos;
+    private int frameStartAllocations;
+
+    /**
+     * 开启或关闭绘制过程中对象分配的统计。
+     * 使用Debug的分配计数，会影响整个进程的性能，只用于调试
+     *
+     * @param allocationTracking 是否统计
+     */
+    @SuppressWarnings("deprecation")
+    public void setAllocationTracking(boolean allocationTracking) {
+        if (this.allocationTracking == allocationTracking) {
+            return;
+        }
+        this.allocationTracking = allocationTracking;
+        if (allocationTracking) {
+            Debug.startAllocCounting();
+        } else {
+            Debug.stopAllocCounting();
+        }
+    }
+
+    public boolean isAllocationTracking() {
+        return allocationTracking;
+    }
+
+    /**
+     * 在一帧绘制开始前调用
+     */
+    @SuppressWarnings("deprecation")
+    public void beginFrame() {
+        frameStartNanos = System.nanoTime();
+        if (allocationTracking) {
+            frameStartAllocations = Debug.getThreadAllocCount();
+        }
+    }
+
+    /**
+     * 在一帧绘制结束后调用，与{@link #beginFrame()}配对
+     *
+     * @param vertexCount 这一帧所有Path的顶点数
+     */
+    @SuppressWarnings("deprecation")
+    public void endFrame(int vertexCount) {
+        int frameAllocations = allocationTracking ? Debug.getThreadAllocCount() - frameStartAllocations : 0;
+        recordFrame(System.nanoTime() - frameStartNanos, vertexCount, frameAllocations);
+    }
+
+    /**
+     * 记录一帧的绘制
+     *
+     * @param drawTimeNanos 绘制耗时(ns)
+     * @param vertexCount   这一帧所有Path的顶点数
+     * @param allocations   绘制过程中分配的对象数，没有开启分配统计时为0
+     */
+    public void recordFrame(long drawTimeNanos, int vertexCount, int allocations) {
+        frameCount++;
+        totalDrawTimeNanos += drawTimeNanos;
+        if (drawTimeNanos > maxDrawTimeNanos) {
+            maxDrawTimeNanos = drawTimeNanos;
+        }
+        drawTimeHistogram[bucketOf(drawTimeNanos)]++;
+
+        lastVertexCount = vertexCount;
+        int bucket = 0;
+        while (bucket < VERTEX_COUNT_BOUNDS.length && vertexCount > VERTEX_COUNT_BOUNDS[bucket]) {
+            bucket++;
+        }
+        vertexCountHistogram[bucket]++;
+        this.allocations += allocations;
+    }
+
+    /**
+     * 记录一次时钟回调(不一定会重绘)
+     *
+     * @param framesSkipped 这次回调之前帧时钟因为目标帧率跳过的帧数
+     */
+    public void recordClockCallback(int framesSkipped) {
+        clockCallbacks++;
+        this.framesSkipped += framesSkipped;
+    }
+
+    /**
+     * 记录一次因为画面没有变化而跳过的重绘
+     */
+    public void recordSuppressedFrame() {
+        framesSuppressed++;
+    }
+
+    public void reset() {
+        for (int i = 0; i < drawTimeHistogram.length; i++) {
+            drawTimeHistogram[i] = 0;
+        }
+        for (int i = 0; i < vertexCountHistogram.length; i++) {
+            vertexCountHistogram[i] = 0;
+        }
+        frameCount = 0;
+        totalDrawTimeNanos = 0;
+        maxDrawTimeNanos = 0;
+        lastVertexCount = 0;
+        framesSkipped = 0;
+        clockCallbacks = 0;
+        framesSuppressed = 0;
+        allocations = 0;
+    }
+
+    /**
+     * 复制当前的统计，out可以重复使用
+     *
+     * @param out 输出
+     */
+    public void copyTo(WaveRenderStats out) {
+        System.arraycopy(drawTimeHistogram, 0, out.drawTimeHistogram, 0, drawTimeHistogram.length);
+        System.arraycopy(vertexCountHistogram, 0, out.vertexCountHistogram, 0, vertexCountHistogram.length);
+        out.frameCount = frameCount;
+        out.totalDrawTimeNanos = totalDrawTimeNanos;
+        out.maxDrawTimeNanos = maxDrawTimeNanos;
+        out.lastVertexCount = lastVertexCount;
+        out.framesSkipped = framesSkipped;
+        out.clockCallbacks = clockCallbacks;
+        out.framesSuppressed = framesSuppressed;
+        out.allocations = allocations;
+    }
+
+    /**
+     * 已绘制的帧数
+     */
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    public long getAverageDrawTimeNanos() {
+        return frameCount == 0 ? 0 : totalDrawTimeNanos / frameCount;
+    }
+
+    public long getMaxDrawTimeNanos() {
+        return maxDrawTimeNanos;
+    }
+
+    /**
+     * 由直方图估算绘制耗时的百分位数，返回所在桶的上界
+     *
+     * @param percentile 百分位，范围(0, 1]
+     * @return 耗时(ns)，最后一个桶返回最大耗时
+     */
+    public long getDrawTimePercentileNanos(float percentile) {
+        if (frameCount == 0) {
+            return 0;
+        }
+        long target = (long) Math.ceil(frameCount * percentile);
+        long count = 0;
+        for (int i = 0; i < DRAW_TIME_BOUNDS_NANOS.length; i++) {
+            count += drawTimeHistogram[i];
+            if (count >= target) {
+                return DRAW_TIME_BOUNDS_NANOS[i];
+            }
+        }
+        return maxDrawTimeNanos;
+    }
+
+    /**
+     * 绘制耗时直方图，桶的上界见{@link #getDrawTimeBucketBoundsNanos()}
+     */
+    public long[] getDrawTimeHistogram() {
+        return drawTimeHistogram;
+    }
+
+    public static long[] getDrawTimeBucketBoundsNanos() {
+        return DRAW_TIME_BOUNDS_NANOS.clone();
+    }
+
+    /**
+     * 顶点数直方图，桶的上界见{@link #getVertexCountBucketBounds()}
+     */
+    public long[] getVertexCountHistogram() {
+        return vertexCountHistogram;
+    }
+
+    public static int[] getVertexCountBucketBounds() {
+        return VERTEX_COUNT_BOUNDS.clone();
+    }
+
+    public int getLastVertexCount() {
+        return lastVertexCount;
+    }
+
+    public long getFramesSkipped() {
+        return framesSkipped;
+    }
+
+    /**
+     * 时钟回调的次数，与{@link #getFrameCount()}比较可以看出有多少回调没有产生重绘
+     */
+    public long getClockCallbacks() {
+        return clockCallbacks;
+    }
+
+    /**
+     * 时钟回调中因为画面与上一次绘制相同而跳过重绘的次数
+     */
+    public long getFramesSuppressed() {
+        return framesSuppressed;
+    }
+
+    public long getAllocations() {
+        return allocations;
+    }
+
+    private static int bucketOf(long drawTimeNanos) {
+        int bucket = 0;
+        while (bucket < DRAW_TIME_BOUNDS_NANOS.length && drawTimeNanos > DRAW_TIME_BOUNDS_NANOS[bucket]) {
+            bucket++;
+        }
+        return bucket;
+    }
+}
@@ -0,0 +1,224 @@
+package com.inkhjw.thewaveview.waveview;
+
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.PorterDuff;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Message;
+import android.os.Process;
+import android.view.Surface;
+
+import com.inkhjw.thewaveview.waveview.drawable.WaveLayerKernel;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author hjw
+ * 独立的渲染线程，供WaveSurfaceView和WaveTextureView使用。
+ * 线程拥有自己的帧时钟(Choreographer运行在该线程的Looper上)，直接在Surface上绘制WaveDrawable，
+ * 主线程繁忙时波浪动画也不会卡顿。
+ * 交给渲染线程的WaveDrawable只能在渲染线程中修改，需要修改时使用{@link #queueEvent(Runnable)}
+ */
+
+class WaveRenderThread extends HandlerThread implements Handler.Callback {
+    private static final int MSG_RESUME = 1;
+    private static final int MSG_PAUSE = 2;
+    private static final int MSG_SIZE_CHANGED = 3;
+    private static final int MSG_SET_DRAWABLES = 4;
+    private static final int MSG_TARGET_FPS = 5;
+    private static final int MSG_RENDER = 6;
+    private static final int MSG_RELEASE = 7;
+
+    //Surface在主线程中创建和销毁，绘制时持有该锁，保证销毁回调返回后不再绘制
+    private final Object surfaceLock = new Object();
+    private Surface surface;
+
+    private final Handler handler;
+    //以下只在渲染线程中访问
+    private WaveFrameClock frameClock;
+    private final ArrayList<WaveDrawable> waveDrawables = new ArrayList<>();
+    //各层的几何缓存失效时融合计算
+    private final WaveLayerKernel layerKernel = new WaveLayerKernel();
+    private int width;
+    private int height;
+    private volatile int backgroundColor = Color.TRANSPARENT;
+
+    private final WaveFrameClock.OnFrameListener frameListener = new WaveFrameClock.OnFrameListener() {
+        @Override
+        public void onFrame(long playTimeNanos) {
+            boolean changed = false;
+            for (int i = 0; i < waveDrawables.size(); i++) {
+                waveDrawables.get(i).setPlayTime(playTimeNanos);
+                changed |= waveDrawables.get(i).isRenderStateChanged();
+            }
+            //画面没有变化时不提交新的一帧，Surface保留上一帧的内容
+            if (changed) {
+                render();
+            }
+        }
+    };
+
+    WaveRenderThread() {
+        super("WaveRenderThread", Process.THREAD_PRIORITY_DISPLAY);
+        start();
+        handler = new Handler(getLooper(), this);
+    }
+
+    /**
+     * Surface可用或大小变化时调用(主线程)
+     */
+    void setSurface(Surface surface, int width, int height) {
+        synchronized (surfaceLock) {
+            this.surface = surface;
+        }
+        handler.obtainMessage(MSG_SIZE_CHANGED, width, height).sendToTarget();
+    }
+
+    void setSurfaceSize(int width, int height) {
+        handler.obtainMessage(MSG_SIZE_CHANGED, width, height).sendToTarget();
+    }
+
+    /**
+     * Surface销毁时调用(主线程)，返回后渲染线程不会再使用该Surface
+     */
+    void releaseSurface() {
+        synchronized (surfaceLock) {
+            surface = null;
+        }
+    }
+
+    /**
+     * 设置要绘制的WaveDrawable，之后这些Drawable归渲染线程所有
+     */
+    void setWaveDrawables(List<WaveDrawable> drawables) {
+        handler.obtainMessage(MSG_SET_DRAWABLES, new ArrayList<>(drawables)).sendToTarget();
+    }
+
+    void setTargetFps(int targetFps) {
+        handler.obtainMessage(MSG_TARGET_FPS, targetFps, 0).sendToTarget();
+    }
+
+    void setBackgroundColor(int backgroundColor) {
+        this.backgroundColor = backgroundColor;
+        handler.sendEmptyMessage(MSG_RENDER);
+    }
+
+    void onResume() {
+        handler.removeMessages(MSG_PAUSE);
+        handler.sendEmptyMessage(MSG_RESUME);
+    }
+
+    void onPause() {
+        handler.removeMessages(MSG_RESUME);
+        handler.sendEmptyMessage(MSG_PAUSE);
+    }
+
+    /**
+     * 在渲染线程中执行，用于修改已经交给渲染线程的WaveDrawable
+     */
+    void queueEvent(Runnable event) {
+        handler.post(event);
+    }
+
+    /**
+     * 停止动画并结束线程
+     */
+    void release() {
+        releaseSurface();
+        handler.sendEmptyMessage(MSG_RELEASE);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean handleMessage(Message msg) {
+        switch (msg.what) {
+            case MSG_RESUME:
+                ensureFrameClock().start();
+                break;
+            case MSG_PAUSE:
+                ensureFrameClock().pause();
+                break;
+            case MSG_SIZE_CHANGED:
+                width = msg.arg1;
+                height = msg.arg2;
+                updateDrawableBounds();
+                render();
+                break;
+            case MSG_SET_DRAWABLES:
+                waveDrawables.clear();
+                waveDrawables.addAll((List<WaveDrawable>) msg.obj);
+                long playTime = ensureFrameClock().getPlayTimeNanos();
+                for (int i = 0; i < waveDrawables.size(); i++) {
+                    waveDrawables.get(i).setCallback(null);
+                    waveDrawables.get(i).setPlayTime(playTime);
+                }
+                updateDrawableBounds();
+                render();
+                break;
+            case MSG_TARGET_FPS:
+                ensureFrameClock().setTargetFps(msg.arg1);
+                break;
+            case MSG_RENDER:
+                render();
+                break;
+            case MSG_RELEASE:
+                ensureFrameClock().stop();
+                Looper looper = Looper.myLooper();
+                if (looper != null) {
+                    looper.quit();
+                }
+                break;
+            default:
+                return false;
+        }
+        return true;
+    }
+
+    private WaveFrameClock ensureFrameClock() {
+        if (frameClock == null) {
+            frameClock = new WaveFrameClock();
+            frameClock.addFrameListener(frameListener);
+        }
+        return frameClock;
+    }
+
+    private void updateDrawableBounds() {
+        for (int i = 0; i < waveDrawables.size(); i++) {
+            waveDrawables.get(i).setBounds(0, 0, width, height);
+        }
+    }
+
+    private void render() {
+        synchronized (surfaceLock) {
+            if (surface == null || !surface.isValid() || width <= 0 || height <= 0) {
+                return;
+            }
+            Canvas canvas;
+            try {
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+                    canvas = surface.lockHardwareCanvas();
+                } else {
+                    canvas = surface.lockCanvas(null);
+                }
+            } catch (IllegalArgumentException | Surface.OutOfResourcesException e) {
+                return;
+            }
+            if (canvas == null) {
+                return;
+            }
+            try {
+                canvas.drawColor(backgroundColor, PorterDuff.Mode.SRC);
+                layerKernel.prepare(waveDrawables);
+                for (int i = 0; i < waveDrawables.size(); i++) {
+                    waveDrawables.get(i).draw(canvas);
+                }
+            } finally {
+                surface.unlockCanvasAndPost(canvas);
+            }
+        }
+    }
+}
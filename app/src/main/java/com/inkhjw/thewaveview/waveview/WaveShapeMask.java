@@ -0,0 +1,133 @@
+package com.inkhjw.thewaveview.waveview;
+
+import android.content.Context;
+import android.content.res.TypedArray;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.RectF;
+import android.util.AttributeSet;
+
+import com.inkhjw.thewaveview.R;
+
+/**
+ * @author hjw
+ * 波浪的形状遮罩(圆形、圆角矩形或任意Path)，如圆形的进度球。
+ * 遮罩按大小渲染一次到ALPHA_8的位图，由WaveDrawable作为画笔的BitmapShader使用，
+ * 填充的颜色乘以遮罩的透明度，不需要每帧clipPath或离屏的图层，每帧的开销与没有遮罩时相同。
+ * 位图只缓存最近一次的大小，只在View的大小变化时重新渲染
+ */
+
+public class WaveShapeMask {
+    public static final int SHAPE_NONE = 0;
+    public static final int SHAPE_CIRCLE = 1;
+    public static final int SHAPE_ROUNDED_RECT = 2;
+    public static final int SHAPE_PATH = 3;
+
+    private final int shape;
+    private final float cornerRadius;
+    private final Path path;
+
+    private Bitmap bitmap;
+
+    private WaveShapeMask(int shape, float cornerRadius, Path path) {
+        this.shape = shape;
+        this.cornerRadius = cornerRadius;
+        this.path = path;
+    }
+
+    /**
+     * 内切于绘制范围的圆形
+     */
+    public static WaveShapeMask circle() {
+        return new WaveShapeMask(SHAPE_CIRCLE, 0, null);
+    }
+
+    /**
+     * 与绘制范围相同的圆角矩形
+     *
+     * @param cornerRadius 圆角半径(px)
+     */
+    public static WaveShapeMask roundedRect(float cornerRadius) {
+        if (!(cornerRadius >= 0)) {
+            throw new IllegalArgumentException("cornerRadius must be >= 0");
+        }
+        return new WaveShapeMask(SHAPE_ROUNDED_RECT, cornerRadius, null);
+    }
+
+    /**
+     * 任意形状，坐标与波浪的绘制坐标相同，之后修改path不影响遮罩
+     *
+     * @param path 遮罩的形状
+     */
+    public static WaveShapeMask path(Path path) {
+        if (path == null) {
+            throw new IllegalArgumentException("path must not be null");
+        }
+        return new WaveShapeMask(SHAPE_PATH, 0, new Path(path));
+    }
+
+    /**
+     * 读取布局中的mask_shape、mask_corner_radius
+     *
+     * @return 没有设置遮罩时返回null
+     */
+    static WaveShapeMask obtain(Context context, AttributeSet attrs) {
+        if (attrs == null) {
+            return null;
+        }
+        TypedArray a = context.obtainStyledAttributes(attrs, R.styleable.WaveShapeMask);
+        int shape = a.getInt(R.styleable.WaveShapeMask_mask_shape, SHAPE_NONE);
+        float cornerRadius = a.getDimension(R.styleable.WaveShapeMask_mask_corner_radius, 0);
+        a.recycle();
+        if (shape == SHAPE_CIRCLE) {
+            return circle();
+        }
+        if (shape == SHAPE_ROUNDED_RECT) {
+            return roundedRect(cornerRadius);
+        }
+        return null;
+    }
+
+    public int getShape() {
+        return shape;
+    }
+
+    public float getCornerRadius() {
+        return cornerRadius;
+    }
+
+    /**
+     * 获取该大小的遮罩，大小与上一次相同时直接返回缓存的位图
+     *
+     * @param width  绘制范围的宽度
+     * @param height 绘制范围的高度
+     * @return 遮罩，大小为0时返回null
+     */
+    public Bitmap obtainBitmap(int width, int height) {
+        if (width <= 0 || height <= 0) {
+            return null;
+        }
+        if (bitmap != null && bitmap.getWidth() == width && bitmap.getHeight() == height) {
+            return bitmap;
+        }
+        //旧的位图可能还在其他Drawable的shader中使用，不回收
+        bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ALPHA_8);
+        Canvas canvas = new Canvas(bitmap);
+        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        paint.setColor(0xFF000000);
+        switch (shape) {
+            case SHAPE_CIRCLE:
+                canvas.drawCircle(width / 2f, height / 2f, Math.min(width, height) / 2f, paint);
+                break;
+            case SHAPE_ROUNDED_RECT:
+                canvas.drawRoundRect(new RectF(0, 0, width, height), cornerRadius, cornerRadius, paint);
+                break;
+            default:
+                canvas.drawPath(path, paint);
+                break;
+        }
+        return bitmap;
+    }
+}
@@ -0,0 +1,182 @@
+package com.inkhjw.thewaveview.waveview;
+
+import android.content.Context;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.PixelFormat;
+import android.util.AttributeSet;
+import android.view.SurfaceHolder;
+import android.view.SurfaceView;
+import android.view.View;
+
+import com.inkhjw.thewaveview.waveview.drawable.WaveAnimationDrawable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author hjw
+ * 在独立渲染线程中绘制的波浪，主线程繁忙时(如列表绑定、解析数据)动画依然流畅。
+ * 可以使用与WaveView、MultiWaveView相同的WaveDrawable
+ */
+
+public class WaveSurfaceView extends SurfaceView implements SurfaceHolder.Callback {
+    private final ArrayList<WaveDrawable> waveDrawables = new ArrayList<>();
+    private WaveRenderThread renderThread;
+    private int targetFps;
+    private int surfaceBackgroundColor = Color.WHITE;
+    //调用者通过onPause()/onResume()控制的状态
+    private boolean userPaused;
+
+    public WaveSurfaceView(Context context) {
+        super(context);
+        init(context, null);
+    }
+
+    public WaveSurfaceView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        init(context, attrs);
+    }
+
+    public WaveSurfaceView(Context context, AttributeSet attrs, int defStyleAttr) {
+        super(context, attrs, defStyleAttr);
+        init(context, attrs);
+    }
+
+    private void init(Context context, AttributeSet attrs) {
+        WaveView.WaveAttribute waveAttribute = WaveView.WaveAttribute.obtain(context, attrs);
+        Paint paint = new Paint();
+        paint.setColor(waveAttribute.waveColor);
+        paint.setAntiAlias(true);
+        paint.setStyle(Paint.Style.FILL);
+
+        waveDrawables.add(new WaveAnimationDrawable(waveAttribute, paint));
+        targetFps = waveAttribute.targetFps;
+
+        getHolder().setFormat(PixelFormat.TRANSLUCENT);
+        getHolder().addCallback(this);
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        renderThread = new WaveRenderThread();
+        renderThread.setBackgroundColor(surfaceBackgroundColor);
+        renderThread.setTargetFps(targetFps);
+        renderThread.setWaveDrawables(waveDrawables);
+        updateRenderState();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        //super中会同步回调surfaceDestroyed
+        super.onDetachedFromWindow();
+        if (renderThread != null) {
+            renderThread.release();
+            renderThread = null;
+        }
+    }
+
+    @Override
+    protected void onVisibilityChanged(View changedView, int visibility) {
+        super.onVisibilityChanged(changedView, visibility);
+        updateRenderState();
+    }
+
+    @Override
+    public void surfaceCreated(SurfaceHolder holder) {
+    }
+
+    @Override
+    public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
+        if (renderThread != null) {
+            renderThread.setSurface(holder.getSurface(), width, height);
+        }
+    }
+
+    @Override
+    public void surfaceDestroyed(SurfaceHolder holder) {
+        if (renderThread != null) {
+            renderThread.releaseSurface();
+        }
+    }
+
+    /**
+     * 暂停渲染线程的动画，一般在Activity的onPause中调用
+     */
+    public void onPause() {
+        userPaused = true;
+        updateRenderState();
+    }
+
+    /**
+     * 继续渲染线程的动画，一般在Activity的onResume中调用
+     */
+    public void onResume() {
+        userPaused = false;
+        updateRenderState();
+    }
+
+    private void updateRenderState() {
+        if (renderThread == null) {
+            return;
+        }
+        if (!userPaused && getVisibility() == VISIBLE) {
+            renderThread.onResume();
+        } else {
+            renderThread.onPause();
+        }
+    }
+
+    /**
+     * 设置要绘制的WaveDrawable，按顺序从下往上绘制。
+     * 设置之后这些Drawable由渲染线程绘制，需要修改时使用{@link #queueEvent(Runnable)}
+     *
+     * @param drawables WaveDrawable
+     */
+    public void setWaveDrawables(List<WaveDrawable> drawables) {
+        waveDrawables.clear();
+        if (drawables != null) {
+            waveDrawables.addAll(drawables);
+        }
+        if (renderThread != null) {
+            renderThread.setWaveDrawables(waveDrawables);
+        }
+    }
+
+    /**
+     * 在渲染线程中执行，用于修改正在绘制的WaveDrawable
+     *
+     * @param event 要执行的操作
+     */
+    public void queueEvent(Runnable event) {
+        if (renderThread != null) {
+            renderThread.queueEvent(event);
+        } else {
+            event.run();
+        }
+    }
+
+    /**
+     * Surface位于窗口之下，没有被波浪覆盖的区域使用该颜色填充
+     *
+     * @param color 背景色
+     */
+    public void setSurfaceBackgroundColor(int color) {
+        surfaceBackgroundColor = color;
+        if (renderThread != null) {
+            renderThread.setBackgroundColor(color);
+        }
+    }
+
+    public void setTargetFps(int targetFps) {
+        this.targetFps = targetFps;
+        if (renderThread != null) {
+            renderThread.setTargetFps(targetFps);
+        }
+    }
+
+    public int getTargetFps() {
+        return targetFps;
+    }
+}
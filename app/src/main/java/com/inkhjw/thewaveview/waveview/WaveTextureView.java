@@ -0,0 +1,205 @@
+package com.inkhjw.thewaveview.waveview;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.SurfaceTexture;
+import android.os.Build;
+import android.util.AttributeSet;
+import android.view.Surface;
+import android.view.TextureView;
+import android.view.View;
+
+import com.inkhjw.thewaveview.waveview.drawable.WaveAnimationDrawable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author hjw
+ * 在独立渲染线程中绘制的波浪，与WaveSurfaceView相同，
+ * 但可以像普通View一样参与变换、透明度和层级，适合放在列表或动画中
+ */
+
+@TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
+public class WaveTextureView extends TextureView implements TextureView.SurfaceTextureListener {
+    private final ArrayList<WaveDrawable> waveDrawables = new ArrayList<>();
+    private WaveRenderThread renderThread;
+    private Surface surface;
+    private int targetFps;
+    private int surfaceBackgroundColor = Color.TRANSPARENT;
+    //调用者通过onPause()/onResume()控制的状态
+    private boolean userPaused;
+
+    public WaveTextureView(Context context) {
+        super(context);
+        init(context, null);
+    }
+
+    public WaveTextureView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        init(context, attrs);
+    }
+
+    public WaveTextureView(Context context, AttributeSet attrs, int defStyleAttr) {
+        super(context, attrs, defStyleAttr);
+        init(context, attrs);
+    }
+
+    private void init(Context context, AttributeSet attrs) {
+        WaveView.WaveAttribute waveAttribute = WaveView.WaveAttribute.obtain(context, attrs);
+        Paint paint = new Paint();
+        paint.setColor(waveAttribute.waveColor);
+        paint.setAntiAlias(true);
+        paint.setStyle(Paint.Style.FILL);
+
+        waveDrawables.add(new WaveAnimationDrawable(waveAttribute, paint));
+        targetFps = waveAttribute.targetFps;
+
+        setOpaque(false);
+        setSurfaceTextureListener(this);
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        renderThread = new WaveRenderThread();
+        renderThread.setBackgroundColor(surfaceBackgroundColor);
+        renderThread.setTargetFps(targetFps);
+        renderThread.setWaveDrawables(waveDrawables);
+        updateRenderState();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        //super中会回调onSurfaceTextureDestroyed
+        super.onDetachedFromWindow();
+        if (renderThread != null) {
+            renderThread.release();
+            renderThread = null;
+        }
+        releaseSurface();
+    }
+
+    @Override
+    protected void onVisibilityChanged(View changedView, int visibility) {
+        super.onVisibilityChanged(changedView, visibility);
+        updateRenderState();
+    }
+
+    @Override
+    public void onSurfaceTextureAvailable(SurfaceTexture surfaceTexture, int width, int height) {
+        releaseSurface();
+        surface = new Surface(surfaceTexture);
+        if (renderThread != null) {
+            renderThread.setSurface(surface, width, height);
+        }
+    }
+
+    @Override
+    public void onSurfaceTextureSizeChanged(SurfaceTexture surfaceTexture, int width, int height) {
+        if (renderThread != null) {
+            renderThread.setSurfaceSize(width, height);
+        }
+    }
+
+    @Override
+    public boolean onSurfaceTextureDestroyed(SurfaceTexture surfaceTexture) {
+        if (renderThread != null) {
+            renderThread.releaseSurface();
+        }
+        releaseSurface();
+        return true;
+    }
+
+    @Override
+    public void onSurfaceTextureUpdated(SurfaceTexture surfaceTexture) {
+    }
+
+    private void releaseSurface() {
+        if (surface != null) {
+            surface.release();
+            surface = null;
+        }
+    }
+
+    /**
+     * 暂停渲染线程的动画，一般在Activity的onPause中调用
+     */
+    public void onPause() {
+        userPaused = true;
+        updateRenderState();
+    }
+
+    /**
+     * 继续渲染线程的动画，一般在Activity的onResume中调用
+     */
+    public void onResume() {
+        userPaused = false;
+        updateRenderState();
+    }
+
+    private void updateRenderState() {
+        if (renderThread == null) {
+            return;
+        }
+        if (!userPaused && getVisibility() == VISIBLE) {
+            renderThread.onResume();
+        } else {
+            renderThread.onPause();
+        }
+    }
+
+    /**
+     * 设置要绘制的WaveDrawable，按顺序从下往上绘制。
+     * 设置之后这些Drawable由渲染线程绘制，需要修改时使用{@link #queueEvent(Runnable)}
+     *
+     * @param drawables WaveDrawable
+     */
+    public void setWaveDrawables(List<WaveDrawable> drawables) {
+        waveDrawables.clear();
+        if (drawables != null) {
+            waveDrawables.addAll(drawables);
+        }
+        if (renderThread != null) {
+            renderThread.setWaveDrawables(waveDrawables);
+        }
+    }
+
+    /**
+     * 在渲染线程中执行，用于修改正在绘制的WaveDrawable
+     *
+     * @param event 要执行的操作
+     */
+    public void queueEvent(Runnable event) {
+        if (renderThread != null) {
+            renderThread.queueEvent(event);
+        } else {
+            event.run();
+        }
+    }
+
+    /**
+     * 没有被波浪覆盖的区域使用该颜色填充，默认透明
+     *
+     * @param color 背景色
+     */
+    public void setSurfaceBackgroundColor(int color) {
+        surfaceBackgroundColor = color;
+        if (renderThread != null) {
+            renderThread.setBackgroundColor(color);
+        }
+    }
+
+    public void setTargetFps(int targetFps) {
+        this.targetFps = targetFps;
+        if (renderThread != null) {
+            renderThread.setTargetFps(targetFps);
+        }
+    }
+
+    public int getTargetFps() {
+        return targetFps;
+    }
+}
@@ -2,18 +2,28 @@ package com.inkhjw.thewaveview.waveview;
 
 import android.annotation.TargetApi;
 import android.content.Context;
+import android.content.res.Configuration;
+import android.content.res.Resources;
 import android.content.res.TypedArray;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.drawable.Drawable;
 import android.os.Build;
+import android.text.TextUtils;
 import android.util.AttributeSet;
+import android.util.TypedValue;
+import android.view.MotionEvent;
 import android.view.View;
 import android.view.animation.AnimationUtils;
 
 import com.inkhjw.thewaveview.R;
 import com.inkhjw.thewaveview.waveview.drawable.WaveAnimationDrawable;
+import com.inkhjw.thewaveview.waveview.drawable.WaveFrameAtlasCache;
+
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.WeakHashMap;
 
 /**
  * @author hjw
@@ -22,6 +32,71 @@ import com.inkhjw.thewaveview.waveview.drawable.WaveAnimationDrawable;
 
 public class WaveView extends View {
     private WaveDrawable waveDrawable;
+    //绘制统计，默认关闭
+    private WaveRenderStats renderStats;
+    private WaveRenderStats.OnRenderStatsListener renderStatsListener;
+    //自适应的绘制质量，默认关闭
+    private WaveQualityGovernor qualityGovernor;
+    private final WaveQualityGovernor.OnQualityChangeListener qualityTarget =
+            new WaveQualityGovernor.OnQualityChangeListener() {
+                @Override
+                public void onQualityChanged(int oldLevel, int newLevel) {
+                    applyQualityLevel();
+                }
+            };
+    //调用者设置的帧图集开关，质量降到LEVEL_FRAME_ATLAS时也会开启
+    private boolean frameAtlasEnabled;
+    //触摸涟漪，默认关闭
+    private boolean touchRipplesEnabled;
+    //当前手势在波浪带内按下，由这个View处理
+    private boolean rippleGesture;
+    //流水线式的几何计算，默认关闭
+    private boolean pipelinedGeometryEnabled;
+    //形状遮罩，只在大小变化时重新渲染
+    private WaveShapeMask shapeMask;
+    //Drawable状态的帧时钟，每一帧更新Drawable的动画时间后重绘一次。
+    //配置相同的View共用状态，也就共用同一个时钟
+    private WaveFrameClock frameClock;
+    private boolean clockAcquired;
+    private final WaveFrameClock.OnFrameListener frameListener = new WaveFrameClock.OnFrameListener() {
+        @Override
+        public void onFrame(long playTimeNanos) {
+            if (renderStats != null) {
+                renderStats.recordClockCallback(frameClock.getLastSkippedFrames());
+            }
+            //降低帧率的质量等级中跳过部分帧
+            if (qualityGovernor != null && !qualityGovernor.shouldDrawFrame(playTimeNanos)) {
+                if (renderStats != null) {
+                    renderStats.recordSuppressedFrame();
+                }
+                return;
+            }
+            if (waveDrawable != null) {
+                waveDrawable.setPlayTime(playTimeNanos);
+                //画面与上一次绘制相同时跳过这一帧
+                if (!waveDrawable.isRenderStateChanged()) {
+                    if (renderStats != null) {
+                        renderStats.recordSuppressedFrame();
+                    }
+                    return;
+                }
+                //API 21以后invalidate的区域由框架自己计算，传入的矩形会被忽略
+                invalidate();
+            }
+        }
+    };
+    //滚动出屏幕时暂停动画
+    private final WaveVisibilityTracker visibilityTracker = new WaveVisibilityTracker(this,
+            new WaveVisibilityTracker.Callback() {
+                @Override
+                public void onScreenVisibilityChanged(boolean onScreen) {
+                    if (onScreen) {
+                        startAnimation();
+                    } else {
+                        pauseAnimation();
+                    }
+                }
+            });
 
     public WaveView(Context context) {
         super(context);
@@ -39,18 +114,38 @@ public class WaveView extends View {
     }
 
     private void init(Context context, AttributeSet attrs) {
-        WaveAttribute waveAttribute = new WaveAttribute(context, attrs);
+        WaveAttribute waveAttribute = WaveAttribute.obtain(context, attrs);
         Paint paint = new Paint();
         paint.setColor(waveAttribute.waveColor);
         paint.setAntiAlias(true);
         paint.setStyle(Paint.Style.FILL);
+        shapeMask = WaveShapeMask.obtain(context, attrs);
 
-        setWaveDrawable(new WaveAnimationDrawable(waveAttribute, paint));
+        //列表中配置相同的View共用几何缓存和帧时钟
+        setWaveDrawable(WaveAnimationDrawable.share(new WaveAnimationDrawable(waveAttribute, paint)));
     }
 
     @Override
     protected void onDraw(Canvas canvas) {
+        if (renderStats == null && qualityGovernor == null) {
+            waveDrawable.draw(canvas);
+            return;
+        }
+        long startNanos = System.nanoTime();
+        if (renderStats != null) {
+            renderStats.beginFrame();
+        }
         waveDrawable.draw(canvas);
+        if (qualityGovernor != null) {
+            qualityGovernor.onFrameDrawn(System.nanoTime() - startNanos);
+        }
+        if (renderStats == null) {
+            return;
+        }
+        renderStats.endFrame(waveDrawable.getLastVertexCount());
+        if (renderStatsListener != null) {
+            renderStatsListener.onFrameRendered(renderStats);
+        }
     }
 
     @Override
@@ -86,7 +181,7 @@ public class WaveView extends View {
     protected void onVisibilityChanged(View changedView, int visibility) {
         super.onVisibilityChanged(changedView, visibility);
         if (visibility == GONE || visibility == INVISIBLE) {
-            stopAnimation();
+            pauseAnimation();
         } else {
             startAnimation();
         }
@@ -95,6 +190,7 @@ public class WaveView extends View {
     @Override
     protected void onSizeChanged(int w, int h, int oldw, int oldh) {
         updateDrawableBounds(w, h);
+        applyShapeMask();
     }
 
     /**
@@ -138,16 +234,50 @@ public class WaveView extends View {
         }
     }
 
+    /**
+     * 开启触摸涟漪时，在波浪带内按下的手势扰动波浪，按下和移动的位置都会产生涟漪。
+     * 波浪带以外的触摸按View原本的方式处理；涟漪只从这里注入，不使用hotspot
+     */
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        boolean handled = super.onTouchEvent(event);
+        if (!touchRipplesEnabled || waveDrawable == null) {
+            return handled;
+        }
+        int action = event.getActionMasked();
+        if (action == MotionEvent.ACTION_DOWN) {
+            rippleGesture = waveDrawable.getDirtyBounds().contains((int) event.getX(), (int) event.getY());
+        }
+        if (!rippleGesture) {
+            return handled;
+        }
+        if (action == MotionEvent.ACTION_DOWN || action == MotionEvent.ACTION_MOVE) {
+            waveDrawable.disturb(event.getX(), event.getY());
+        } else if (action == MotionEvent.ACTION_UP || action == MotionEvent.ACTION_CANCEL) {
+            rippleGesture = false;
+            //可点击时super已经处理了点击
+            if (action == MotionEvent.ACTION_UP && !handled) {
+                performClick();
+            }
+        }
+        return true;
+    }
+
     @Override
     protected void onAttachedToWindow() {
         super.onAttachedToWindow();
+        visibilityTracker.attach();
+        frameClock.addFrameListener(frameListener);
         startAnimation();
     }
 
     @Override
     protected void onDetachedFromWindow() {
         super.onDetachedFromWindow();
-        stopAnimation();
+        visibilityTracker.detach();
+        pauseAnimation();
+        //共用的时钟仍然在为其他View播放，detach后不再接收帧回调
+        frameClock.removeFrameListener(frameListener);
     }
 
     /**
@@ -166,20 +296,290 @@ public class WaveView extends View {
             //need to set indicator color again if you didn't specified when you update the indicator .
             if (drawable != null) {
                 drawable.setCallback(this);
+                //已经布局过时，新的Drawable直接使用当前的大小
+                if (getWidth() > 0) {
+                    updateDrawableBounds(getWidth(), getHeight());
+                }
+                bindFrameClock();
+                drawable.setPlayTime(frameClock.getPlayTimeNanos());
+                if (qualityGovernor != null) {
+                    applyQualityLevel();
+                }
+                if (touchRipplesEnabled) {
+                    setTouchRipplesEnabled(true);
+                }
+                if (pipelinedGeometryEnabled) {
+                    setPipelinedGeometryEnabled(true);
+                }
+                applyShapeMask();
             }
             postInvalidate();
         }
     }
 
+    /**
+     * 跟随Drawable状态的帧时钟，Drawable或它的状态变化后调用
+     */
+    private void bindFrameClock() {
+        WaveFrameClock clock = waveDrawable.getFrameClock();
+        if (clock == frameClock) {
+            return;
+        }
+        boolean acquired = clockAcquired;
+        if (frameClock != null) {
+            pauseAnimation();
+            frameClock.removeFrameListener(frameListener);
+        }
+        frameClock = clock;
+        frameClock.addFrameListener(frameListener);
+        if (acquired) {
+            clockAcquired = true;
+            frameClock.acquire();
+        }
+    }
+
+    /**
+     * 开始动画，暂停时从暂停的位置继续
+     */
     void startAnimation() {
-        if (getVisibility() != VISIBLE) {
+        if (getVisibility() != VISIBLE || !visibilityTracker.isOnScreen()) {
             return;
         }
-        waveDrawable.start();
+        if (!clockAcquired) {
+            clockAcquired = true;
+            frameClock.acquire();
+        }
     }
 
+    /**
+     * 暂停动画，保持波浪的相位。共用的时钟在所有View都暂停后才会暂停
+     */
+    void pauseAnimation() {
+        if (clockAcquired) {
+            clockAcquired = false;
+            frameClock.release();
+        }
+    }
+
+    /**
+     * 停止动画，波浪回到初始位置
+     */
     void stopAnimation() {
-        waveDrawable.stop();
+        pauseAnimation();
+        if (!frameClock.isRunning()) {
+            frameClock.stop();
+        }
+        if (waveDrawable != null) {
+            waveDrawable.setPlayTime(0);
+            invalidate();
+        }
+    }
+
+    /**
+     * 设置动画的目标帧率，动画比较缓慢时降低帧率可以减少CPU和电量的消耗。
+     * 只影响该View，不再与其他View共用帧时钟，动画从当前位置接着播放
+     *
+     * @param targetFps 目标帧率，0表示跟随屏幕刷新率
+     */
+    public void setTargetFps(int targetFps) {
+        setWaveAttribute(getWaveAttribute().buildUpon().setTargetFps(targetFps).build());
+    }
+
+    public int getTargetFps() {
+        return frameClock.getTargetFps();
+    }
+
+    /**
+     * 开启或关闭预渲染的帧图集，低端设备上用内存换CPU，
+     * 见{@link WaveAnimationDrawable#setFrameAtlasEnabled(boolean)}
+     *
+     * @param enabled 是否开启，默认关闭
+     */
+    public void setFrameAtlasEnabled(boolean enabled) {
+        frameAtlasEnabled = enabled;
+        enabled |= qualityGovernor != null && qualityGovernor.isFrameAtlasLevel();
+        if (enabled) {
+            WaveFrameAtlasCache.getInstance().registerComponentCallbacks(getContext());
+        }
+        if (waveDrawable instanceof WaveAnimationDrawable) {
+            ((WaveAnimationDrawable) waveDrawable).setFrameAtlasEnabled(enabled);
+        }
+    }
+
+    /**
+     * 开启或关闭触摸涟漪：触摸的位置按下水面，涟漪向两侧传播并逐渐消失，
+     * 见{@link WaveAnimationDrawable#setTouchRipplesEnabled(boolean)}
+     *
+     * @param enabled 是否开启，默认关闭
+     */
+    public void setTouchRipplesEnabled(boolean enabled) {
+        touchRipplesEnabled = enabled;
+        if (waveDrawable instanceof WaveAnimationDrawable) {
+            ((WaveAnimationDrawable) waveDrawable).setTouchRipplesEnabled(enabled);
+        }
+    }
+
+    public boolean isTouchRipplesEnabled() {
+        return touchRipplesEnabled;
+    }
+
+    /**
+     * 开启或关闭流水线式的几何计算：绘制这一帧时，工作线程提前计算下一帧的轮廓，
+     * 见{@link WaveAnimationDrawable#setPipelinedGeometryEnabled(boolean)}
+     *
+     * @param enabled 是否开启，默认关闭
+     */
+    public void setPipelinedGeometryEnabled(boolean enabled) {
+        pipelinedGeometryEnabled = enabled;
+        if (waveDrawable instanceof WaveAnimationDrawable) {
+            ((WaveAnimationDrawable) waveDrawable).setPipelinedGeometryEnabled(enabled);
+        }
+    }
+
+    public boolean isPipelinedGeometryEnabled() {
+        return pipelinedGeometryEnabled;
+    }
+
+    /**
+     * 设置形状遮罩(圆形、圆角矩形或任意Path)，如圆形的进度球。遮罩只在大小变化时渲染一次，
+     * 每帧的开销与没有遮罩时相同，见{@link WaveShapeMask}
+     *
+     * @param shapeMask 遮罩，null表示不使用遮罩
+     */
+    public void setShapeMask(WaveShapeMask shapeMask) {
+        this.shapeMask = shapeMask;
+        applyShapeMask();
+    }
+
+    public WaveShapeMask getShapeMask() {
+        return shapeMask;
+    }
+
+    /**
+     * 按当前的大小设置Drawable的遮罩，大小没有变化时使用缓存的位图
+     */
+    private void applyShapeMask() {
+        if (waveDrawable == null) {
+            return;
+        }
+        waveDrawable.setMask(shapeMask != null ? shapeMask.obtainBitmap(getWidth() - getPaddingLeft()
+                - getPaddingRight(), getHeight() - getPaddingTop() - getPaddingBottom()) : null);
+    }
+
+    /**
+     * 开启或关闭自适应的绘制质量：绘制耗时持续超过预算时逐级降低质量，有余量时再恢复，
+     * 见{@link WaveQualityGovernor}。关闭时恢复按配置绘制
+     *
+     * @param enabled 是否开启，默认关闭
+     */
+    public void setAdaptiveQualityEnabled(boolean enabled) {
+        if (enabled && qualityGovernor == null) {
+            qualityGovernor = new WaveQualityGovernor();
+            qualityGovernor.setTarget(qualityTarget);
+        } else if (!enabled && qualityGovernor != null) {
+            qualityGovernor.setTarget(null);
+            qualityGovernor = null;
+            applyQualityLevel();
+        }
+    }
+
+    public boolean isAdaptiveQualityEnabled() {
+        return qualityGovernor != null;
+    }
+
+    /**
+     * 获取自适应绘制质量的控制器，用于固定等级、调整预算或监听等级的变化
+     *
+     * @return 控制器，没有开启时为null
+     */
+    public WaveQualityGovernor getQualityGovernor() {
+        return qualityGovernor;
+    }
+
+    /**
+     * 按当前的质量等级设置Drawable，没有开启自适应质量时恢复按配置绘制
+     */
+    private void applyQualityLevel() {
+        setFrameAtlasEnabled(frameAtlasEnabled);
+        if (waveDrawable instanceof WaveAnimationDrawable) {
+            ((WaveAnimationDrawable) waveDrawable).setCurveToleranceScale(
+                    qualityGovernor != null ? qualityGovernor.getCurveToleranceScale() : 1);
+        }
+        invalidate();
+    }
+
+    /**
+     * 开启或关闭绘制统计，开启后可以通过{@link #getRenderStats()}获取
+     *
+     * @param enabled 是否开启，默认关闭
+     */
+    public void setRenderStatsEnabled(boolean enabled) {
+        if (enabled && renderStats == null) {
+            renderStats = new WaveRenderStats();
+        } else if (!enabled && renderStats != null) {
+            renderStats.setAllocationTracking(false);
+            renderStats = null;
+        }
+    }
+
+    public boolean isRenderStatsEnabled() {
+        return renderStats != null;
+    }
+
+    /**
+     * 统计每一帧绘制中分配的对象数，只用于调试，需要先开启绘制统计
+     *
+     * @param enabled 是否统计
+     */
+    public void setAllocationTrackingEnabled(boolean enabled) {
+        if (renderStats != null) {
+            renderStats.setAllocationTracking(enabled);
+        }
+    }
+
+    public void setOnRenderStatsListener(WaveRenderStats.OnRenderStatsListener listener) {
+        this.renderStatsListener = listener;
+    }
+
+    /**
+     * 获取当前绘制统计的快照
+     *
+     * @return 快照，没有开启统计时为null
+     */
+    public WaveRenderStats getRenderStats() {
+        if (renderStats == null) {
+            return null;
+        }
+        WaveRenderStats snapshot = new WaveRenderStats();
+        renderStats.copyTo(snapshot);
+        return snapshot;
+    }
+
+    /**
+     * 将当前的绘制统计复制到out中，用于定时上报时复用对象
+     *
+     * @param out 输出
+     * @return 是否开启了统计
+     */
+    public boolean getRenderStats(WaveRenderStats out) {
+        if (renderStats == null) {
+            return false;
+        }
+        renderStats.copyTo(out);
+        return true;
+    }
+
+    public void resetRenderStats() {
+        if (renderStats != null) {
+            renderStats.reset();
+        }
+    }
+
+    /**
+     * 测试中直接驱动帧时钟，不依赖Choreographer
+     */
+    WaveFrameClock getFrameClock() {
+        return frameClock;
     }
 
     public void smoothToShow() {
@@ -192,64 +592,389 @@ public class WaveView extends View {
         setVisibility(GONE);
     }
 
+    /**
+     * 更新属性：只更新变化的字段影响的部分(只改颜色时只重绘)，
+     * 动画不会重新开始，波浪从当前的位置平滑过渡到新的属性。
+     * 适合由实时数据频繁驱动波浪高度
+     *
+     * @param waveAttribute 新的属性
+     */
     public void setWaveAttribute(WaveView.WaveAttribute waveAttribute) {
         this.waveDrawable.setWaveAttribute(waveAttribute);
+        //修改帧率时Drawable的时钟可能被替换
+        bindFrameClock();
     }
 
     public WaveView.WaveAttribute getWaveAttribute() {
         return waveDrawable.getWaveAttribute();
     }
 
+    /**
+     * 波浪的属性，创建后不可修改，可以在多个Drawable、缓存之间共用。
+     * 修改时通过{@link #buildUpon()}得到新的属性。
+     * 由布局创建时使用{@link #obtain(Context, AttributeSet)}，相同的样式只解析一次。
+     * 只有{@link Builder#build()}、{@link #obtain(Context, AttributeSet)}和{@link #intern(WaveAttribute)}
+     * 返回按值驻留的实例，公开的构造方法每次创建新的对象
+     */
     public static class WaveAttribute {
         static final int DEFAULT_WIDTH = 200;
         static final int DEFAULT_HEIGHT = 10;
         static final int DEFAULT_ANIM_HEIGHT = 30;
         static final float DEFAULT_ANIM_SPEED = 30.0f / 1500.0f;//默认动画高度为30px，时长为1500ms
         static final int DEFAULT_ANIM_COLOR = Color.parseColor("#F69899");
-
-        public int waveWidth;//波浪宽度
-        public int waveHeight;//波浪高度
-        public int animationTotalHeight;//波浪动画总高度
-        public float animationSpeed;//动画的速度
-        public int waveColor;//波浪颜色
-
+        static final float DEFAULT_FLOW_SPEED = 0;//默认不横向流动
+        static final int DEFAULT_TARGET_FPS = 0;//默认跟随屏幕刷新率
+
+        //diff的结果：变化的字段分组，每一组只影响对应的缓存
+        public static final int CHANGE_COLOR = 1;//waveColor，只需要重绘
+        public static final int CHANGE_ANIMATION = 1 << 1;//animationTotalHeight、animationSpeed
+        public static final int CHANGE_GEOMETRY = 1 << 2;//waveWidth、waveHeight
+        public static final int CHANGE_FLOW = 1 << 3;//flowSpeed
+        public static final int CHANGE_FRAME_RATE = 1 << 4;//targetFps
+
+        //按值驻留的属性，不再使用后自动移除
+        private static final WeakHashMap<WaveAttribute, WeakReference<WaveAttribute>> interned = new WeakHashMap<>();
+        //按Resources缓存布局中的原始属性解析的结果，Resources不再使用后自动移除
+        private static final WeakHashMap<Resources, StyleCache> styleCaches = new WeakHashMap<>();
+
+        public final int waveWidth;//波浪宽度
+        public final int waveHeight;//波浪高度
+        public final int animationTotalHeight;//波浪动画总高度
+        public final float animationSpeed;//动画的速度
+        public final int waveColor;//波浪颜色
+        public final float flowSpeed;//横向流动的速度(px/ms)，正数向右，负数向左，0表示不流动
+        public final int targetFps;//动画的目标帧率，0表示跟随屏幕刷新率
+        //属性不可变，哈希值只计算一次
+        private int hash;
+
+        /**
+         * 默认的属性，不驻留，需要共用时使用{@code new Builder().build()}
+         */
         public WaveAttribute() {
-            this.waveWidth = DEFAULT_WIDTH;
-            this.waveHeight = DEFAULT_HEIGHT;
-            this.animationTotalHeight = DEFAULT_ANIM_HEIGHT;
-            this.animationSpeed = DEFAULT_ANIM_SPEED;
-            this.waveColor = DEFAULT_ANIM_COLOR;
+            this(DEFAULT_WIDTH, DEFAULT_HEIGHT, DEFAULT_ANIM_HEIGHT, DEFAULT_ANIM_SPEED, DEFAULT_ANIM_COLOR);
         }
 
+        /**
+         * 不驻留，需要共用时使用{@link Builder}或{@link #intern(WaveAttribute)}
+         */
         public WaveAttribute(int waveWidth, int waveHeight, int animationTotalHeight,
                              float animationSpeed, int waveColor) {
+            this(waveWidth, waveHeight, animationTotalHeight, animationSpeed, waveColor, DEFAULT_FLOW_SPEED);
+        }
+
+        /**
+         * 不驻留，需要共用时使用{@link Builder}或{@link #intern(WaveAttribute)}
+         */
+        public WaveAttribute(int waveWidth, int waveHeight, int animationTotalHeight,
+                             float animationSpeed, int waveColor, float flowSpeed) {
+            this(waveWidth, waveHeight, animationTotalHeight, animationSpeed, waveColor, flowSpeed,
+                    DEFAULT_TARGET_FPS);
+        }
+
+        /**
+         * @deprecated 使用{@link #buildUpon()}或{@link Builder#Builder(WaveAttribute)}，属性不可变，不需要复制
+         */
+        @Deprecated
+        public WaveAttribute(WaveAttribute source) {
+            this(source.waveWidth, source.waveHeight, source.animationTotalHeight, source.animationSpeed,
+                    source.waveColor, source.flowSpeed, source.targetFps);
+        }
+
+        /**
+         * @deprecated 使用{@link #obtain(Context, AttributeSet)}，相同的样式只解析一次并返回驻留的实例
+         */
+        @Deprecated
+        public WaveAttribute(Context c, AttributeSet attrs) {
+            this(obtain(c, attrs));
+        }
+
+        private WaveAttribute(int waveWidth, int waveHeight, int animationTotalHeight,
+                              float animationSpeed, int waveColor, float flowSpeed, int targetFps) {
+            if (targetFps < 0) {
+                throw new IllegalArgumentException("targetFps must be >= 0");
+            }
             this.waveWidth = waveWidth;
             this.waveHeight = waveHeight;
             this.animationTotalHeight = animationTotalHeight;
             this.animationSpeed = animationSpeed;
             this.waveColor = waveColor;
+            this.flowSpeed = flowSpeed;
+            this.targetFps = targetFps;
         }
 
-        public WaveAttribute(WaveAttribute source) {
-            this.waveWidth = source.waveWidth;
-            this.waveHeight = source.waveHeight;
-            this.animationTotalHeight = source.animationTotalHeight;
-            this.animationSpeed = source.animationSpeed;
-            this.waveColor = source.waveColor;
+        /**
+         * 由布局中的属性创建。配置和原始属性(包括style)相同的View直接返回同一个实例，
+         * 列表中几十行相同的波浪只调用一次obtainStyledAttributes。
+         * 结果依赖主题(?attr引用或主题中的默认值)时不缓存，主题被修改(applyStyle等)后不会得到旧的值
+         *
+         * @param context 上下文，使用它的主题解析属性
+         * @param attrs   布局中的属性，可以为null
+         * @return 驻留的属性
+         */
+        public static WaveAttribute obtain(Context context, AttributeSet attrs) {
+            Resources resources = context.getResources();
+            Configuration configuration = resources.getConfiguration();
+            String styleKey = styleKey(attrs);
+            synchronized (styleCaches) {
+                StyleCache cache = styleCaches.get(resources);
+                //夜间模式、屏幕密度等会改变资源引用的值，配置变化后旧的结果全部作废
+                WaveAttribute cached = cache != null && cache.configuration.equals(configuration)
+                        ? cache.attributes.get(styleKey) : null;
+                if (cached != null) {
+                    return cached;
+                }
+            }
+            TypedArray a = context.obtainStyledAttributes(attrs, R.styleable.SpecialWaveView);
+            WaveAttribute attribute = new Builder()
+                    .setWaveWidth(a.getInt(R.styleable.SpecialWaveView_waveWidth, DEFAULT_WIDTH))
+                    .setWaveHeight(a.getInt(R.styleable.SpecialWaveView_waveHeight, DEFAULT_HEIGHT))
+                    .setAnimationTotalHeight(a.getInt(R.styleable.SpecialWaveView_anim_totalHeight, DEFAULT_ANIM_HEIGHT))
+                    .setAnimationSpeed(a.getFloat(R.styleable.SpecialWaveView_anim_speed, DEFAULT_ANIM_SPEED))
+                    .setWaveColor(a.getColor(R.styleable.SpecialWaveView_anim_color, DEFAULT_ANIM_COLOR))
+                    .setFlowSpeed(a.getFloat(R.styleable.SpecialWaveView_flow_speed, DEFAULT_FLOW_SPEED))
+                    .setTargetFps(a.getInt(R.styleable.SpecialWaveView_anim_fps, DEFAULT_TARGET_FPS))
+                    .build();
+            boolean themeIndependent = isThemeIndependent(resources, attrs, a);
+            a.recycle();
+            if (themeIndependent) {
+                synchronized (styleCaches) {
+                    StyleCache cache = styleCaches.get(resources);
+                    if (cache == null || !cache.configuration.equals(configuration)) {
+                        cache = new StyleCache(configuration);
+                        styleCaches.put(resources, cache);
+                    }
+                    cache.attributes.put(styleKey, attribute);
+                }
+            }
+            return attribute;
         }
 
-        public WaveAttribute(Context c, AttributeSet attrs) {
-            TypedArray a = c.obtainStyledAttributes(attrs, R.styleable.SpecialWaveView);
-            setBaseAttributes(a);
-            a.recycle();
+        /**
+         * 样式的键：style和布局中波浪属性的原始值(引用的资源为资源id)，
+         * 只读取AttributeSet中的字符串，不解析主题
+         */
+        private static String styleKey(AttributeSet attrs) {
+            if (attrs == null) {
+                return "";
+            }
+            StringBuilder key = new StringBuilder();
+            key.append(attrs.getStyleAttribute());
+            int[] waveAttrs = R.styleable.SpecialWaveView;
+            for (int i = 0, count = attrs.getAttributeCount(); i < count; i++) {
+                int nameResource = attrs.getAttributeNameResource(i);
+                for (int waveAttr : waveAttrs) {
+                    if (waveAttr == nameResource) {
+                        key.append(';').append(nameResource).append('=').append(attrs.getAttributeValue(i));
+                        break;
+                    }
+                }
+            }
+            return key.toString();
+        }
+
+        /**
+         * 用空的主题再解析一次，每一项都相同时结果与主题无关，可以缓存。只在缓存未命中时调用
+         *
+         * @param resolved 由上下文的主题解析的结果
+         */
+        private static boolean isThemeIndependent(Resources resources, AttributeSet attrs, TypedArray resolved) {
+            TypedArray unthemed = resources.newTheme().obtainStyledAttributes(attrs, R.styleable.SpecialWaveView, 0, 0);
+            TypedValue value = new TypedValue();
+            TypedValue unthemedValue = new TypedValue();
+            boolean independent = true;
+            for (int i = 0, count = resolved.length(); i < count && independent; i++) {
+                boolean hasValue = resolved.getValue(i, value);
+                if (hasValue != unthemed.getValue(i, unthemedValue)) {
+                    independent = false;
+                } else if (hasValue) {
+                    independent = value.type == unthemedValue.type && value.data == unthemedValue.data
+                            && TextUtils.equals(value.string, unthemedValue.string);
+                }
+            }
+            unthemed.recycle();
+            return independent;
         }
 
+        /**
+         * 属性不可变后无法在创建后修改字段，子类应改为把{@link #obtain(Context, AttributeSet)}
+         * 的结果传给{@link #WaveAttribute(WaveAttribute)}
+         *
+         * @deprecated 使用{@link #obtain(Context, AttributeSet)}
+         * @throws UnsupportedOperationException 总是抛出
+         */
+        @Deprecated
         protected void setBaseAttributes(TypedArray a) {
-            this.waveWidth = a.getInt(R.styleable.SpecialWaveView_waveWidth, DEFAULT_WIDTH);
-            this.waveHeight = a.getInt(R.styleable.SpecialWaveView_waveHeight, DEFAULT_HEIGHT);
-            this.animationTotalHeight = a.getInt(R.styleable.SpecialWaveView_anim_totalHeight, DEFAULT_ANIM_HEIGHT);
-            this.animationSpeed = a.getFloat(R.styleable.SpecialWaveView_anim_speed, DEFAULT_ANIM_SPEED);
-            this.waveColor = a.getColor(R.styleable.SpecialWaveView_anim_color, DEFAULT_ANIM_COLOR);
+            throw new UnsupportedOperationException("WaveAttribute is immutable, use WaveAttribute.obtain()");
+        }
+
+        /**
+         * 返回与attribute相等的驻留实例，相同的配置只保留一个对象
+         */
+        public static WaveAttribute intern(WaveAttribute attribute) {
+            synchronized (interned) {
+                WeakReference<WaveAttribute> ref = interned.get(attribute);
+                WaveAttribute internedAttribute = ref != null ? ref.get() : null;
+                if (internedAttribute != null) {
+                    return internedAttribute;
+                }
+                interned.put(attribute, new WeakReference<>(attribute));
+                return attribute;
+            }
+        }
+
+        /**
+         * 以该属性为初始值的Builder
+         */
+        public Builder buildUpon() {
+            return new Builder(this);
+        }
+
+        /**
+         * 比较两个属性，得出变化的字段分组
+         *
+         * @param other 新的属性
+         * @return CHANGE_*的组合，没有变化时为0
+         */
+        public int diff(WaveAttribute other) {
+            int changes = 0;
+            if (waveColor != other.waveColor) {
+                changes |= CHANGE_COLOR;
+            }
+            if (animationTotalHeight != other.animationTotalHeight
+                    || Float.floatToIntBits(animationSpeed) != Float.floatToIntBits(other.animationSpeed)) {
+                changes |= CHANGE_ANIMATION;
+            }
+            if (waveWidth != other.waveWidth || waveHeight != other.waveHeight) {
+                changes |= CHANGE_GEOMETRY;
+            }
+            if (Float.floatToIntBits(flowSpeed) != Float.floatToIntBits(other.flowSpeed)) {
+                changes |= CHANGE_FLOW;
+            }
+            if (targetFps != other.targetFps) {
+                changes |= CHANGE_FRAME_RATE;
+            }
+            return changes;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof WaveAttribute)) {
+                return false;
+            }
+            WaveAttribute other = (WaveAttribute) o;
+            return waveWidth == other.waveWidth
+                    && waveHeight == other.waveHeight
+                    && animationTotalHeight == other.animationTotalHeight
+                    && Float.floatToIntBits(animationSpeed) == Float.floatToIntBits(other.animationSpeed)
+                    && waveColor == other.waveColor
+                    && Float.floatToIntBits(flowSpeed) == Float.floatToIntBits(other.flowSpeed)
+                    && targetFps == other.targetFps;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = hash;
+            if (result == 0) {
+                result = waveWidth;
+                result = 31 * result + waveHeight;
+                result = 31 * result + animationTotalHeight;
+                result = 31 * result + Float.floatToIntBits(animationSpeed);
+                result = 31 * result + waveColor;
+                result = 31 * result + Float.floatToIntBits(flowSpeed);
+                result = 31 * result + targetFps;
+                hash = result;
+            }
+            return result;
+        }
+
+        /**
+         * 一个Resources在某个配置下解析的结果，不能引用Resources(WeakHashMap的值)
+         */
+        private static final class StyleCache {
+            final Configuration configuration;
+            final HashMap<String, WaveAttribute> attributes = new HashMap<>();
+
+            StyleCache(Configuration configuration) {
+                //Resources的配置对象会被原地修改，保存副本
+                this.configuration = new Configuration(configuration);
+            }
+        }
+
+        public static final class Builder {
+            private int waveWidth = DEFAULT_WIDTH;
+            private int waveHeight = DEFAULT_HEIGHT;
+            private int animationTotalHeight = DEFAULT_ANIM_HEIGHT;
+            private float animationSpeed = DEFAULT_ANIM_SPEED;
+            private int waveColor = DEFAULT_ANIM_COLOR;
+            private float flowSpeed = DEFAULT_FLOW_SPEED;
+            private int targetFps = DEFAULT_TARGET_FPS;
+
+            public Builder() {
+            }
+
+            public Builder(WaveAttribute source) {
+                this.waveWidth = source.waveWidth;
+                this.waveHeight = source.waveHeight;
+                this.animationTotalHeight = source.animationTotalHeight;
+                this.animationSpeed = source.animationSpeed;
+                this.waveColor = source.waveColor;
+                this.flowSpeed = source.flowSpeed;
+                this.targetFps = source.targetFps;
+            }
+
+            public Builder setWaveWidth(int waveWidth) {
+                this.waveWidth = waveWidth;
+                return this;
+            }
+
+            public Builder setWaveHeight(int waveHeight) {
+                this.waveHeight = waveHeight;
+                return this;
+            }
+
+            public Builder setAnimationTotalHeight(int animationTotalHeight) {
+                this.animationTotalHeight = animationTotalHeight;
+                return this;
+            }
+
+            public Builder setAnimationSpeed(float animationSpeed) {
+                this.animationSpeed = animationSpeed;
+                return this;
+            }
+
+            public Builder setWaveColor(int waveColor) {
+                this.waveColor = waveColor;
+                return this;
+            }
+
+            public Builder setFlowSpeed(float flowSpeed) {
+                this.flowSpeed = flowSpeed;
+                return this;
+            }
+
+            public Builder setTargetFps(int targetFps) {
+                this.targetFps = targetFps;
+                return this;
+            }
+
+            /**
+             * @return 驻留的属性，与已有的属性相等时返回已有的实例
+             * @throws IllegalArgumentException 波浪宽度或高度不大于0
+             */
+            public WaveAttribute build() {
+                //宽度为0时贝塞尔节点数溢出，绘制时才会出错
+                if (waveWidth <= 0) {
+                    throw new IllegalArgumentException("waveWidth must be > 0");
+                }
+                if (waveHeight <= 0) {
+                    throw new IllegalArgumentException("waveHeight must be > 0");
+                }
+                return intern(new WaveAttribute(waveWidth, waveHeight, animationTotalHeight, animationSpeed,
+                        waveColor, flowSpeed, targetFps));
+            }
         }
     }
 }
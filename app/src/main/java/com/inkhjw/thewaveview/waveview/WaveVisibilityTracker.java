@@ -0,0 +1,84 @@
+package com.inkhjw.thewaveview.waveview;
+
+import android.graphics.Rect;
+import android.os.Build;
+import android.view.View;
+import android.view.ViewTreeObserver;
+
+/**
+ * @author hjw
+ * 检查View在屏幕上是否可见。
+ * 在RecyclerView、ScrollView中滚动出屏幕时View仍然是VISIBLE并且没有detach，
+ * 通过全局布局和滚动的回调检查View在屏幕上的可见区域，区域为空时通知暂停动画
+ */
+
+class WaveVisibilityTracker implements ViewTreeObserver.OnScrollChangedListener,
+        ViewTreeObserver.OnGlobalLayoutListener {
+
+    interface Callback {
+        void onScreenVisibilityChanged(boolean onScreen);
+    }
+
+    private final View view;
+    private final Callback callback;
+    private final Rect visibleRect = new Rect();
+    private ViewTreeObserver observer;
+    private boolean onScreen = true;
+
+    WaveVisibilityTracker(View view, Callback callback) {
+        this.view = view;
+        this.callback = callback;
+    }
+
+    /**
+     * 在onAttachedToWindow中调用，开始监听
+     */
+    void attach() {
+        detach();
+        observer = view.getViewTreeObserver();
+        observer.addOnScrollChangedListener(this);
+        observer.addOnGlobalLayoutListener(this);
+        onScreen = true;
+    }
+
+    /**
+     * 在onDetachedFromWindow中调用，移除监听
+     */
+    @SuppressWarnings("deprecation")
+    void detach() {
+        if (observer == null) {
+            return;
+        }
+        //attach时的ViewTreeObserver可能已经被合并失效，失效时从当前的ViewTreeObserver移除
+        ViewTreeObserver vto = observer.isAlive() ? observer : view.getViewTreeObserver();
+        vto.removeOnScrollChangedListener(this);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            vto.removeOnGlobalLayoutListener(this);
+        } else {
+            vto.removeGlobalOnLayoutListener(this);
+        }
+        observer = null;
+    }
+
+    boolean isOnScreen() {
+        return onScreen;
+    }
+
+    @Override
+    public void onScrollChanged() {
+        check();
+    }
+
+    @Override
+    public void onGlobalLayout() {
+        check();
+    }
+
+    private void check() {
+        boolean visible = view.getGlobalVisibleRect(visibleRect) && !visibleRect.isEmpty();
+        if (visible != onScreen) {
+            onScreen = visible;
+            callback.onScreenVisibilityChanged(visible);
+        }
+    }
+}
@@ -1,32 +1,173 @@
 package com.inkhjw.thewaveview.waveview.drawable;
 
-import android.animation.ValueAnimator;
+import android.graphics.Bitmap;
+import android.graphics.BitmapShader;
 import android.graphics.Canvas;
 import android.graphics.Paint;
 import android.graphics.Path;
-import android.graphics.PointF;
+import android.graphics.Rect;
 import android.graphics.RectF;
+import android.graphics.Shader;
+import android.graphics.drawable.Drawable;
+import android.os.Build;
 
+import com.inkhjw.thewaveview.core.WaveGeometry;
+import com.inkhjw.thewaveview.core.WaveOutline;
+import com.inkhjw.thewaveview.core.WaveRippleField;
 import com.inkhjw.thewaveview.waveview.WaveDrawable;
 import com.inkhjw.thewaveview.waveview.WaveView;
 
+import java.lang.ref.WeakReference;
+import java.util.WeakHashMap;
+
 /**
  * @author hjw
  */
 
 public class WaveAnimationDrawable extends WaveDrawable {
+    //波浪轮廓：逐像素采样的折线，精确但顶点数随宽度增长
+    public static final int OUTLINE_POLYLINE = 0;
+    //波浪轮廓：每个波长由少量三次贝塞尔曲线拟合，顶点数只随波长个数增长
+    public static final int OUTLINE_BEZIER = 1;
+    //波浪轮廓：逐像素的三角形带，由Canvas.drawVertices直接填充，不需要细分Path，但边缘没有抗锯齿
+    public static final int OUTLINE_VERTICES = 2;
+    //硬件加速从API 29开始支持drawVertices(compileSdkVersion为28，没有VERSION_CODES.Q)
+    private static final int HARDWARE_VERTICES_SDK = 29;
+    //贝塞尔拟合的默认误差(px)
+    public static final float DEFAULT_CURVE_TOLERANCE = 0.5f;
+    //动画偏移默认对齐到1/16像素，更小的变化经过抗锯齿后看不出来
+    public static final int DEFAULT_OFFSET_STEPS = 16;
+    //属性变化时波浪高度、动画总高度过渡的默认时长(ms)
+    public static final long DEFAULT_TRANSITION_DURATION = 300;
+    //还没有记录帧间隔时按60fps预测下一帧，间隔超过上限时(如暂停后继续)不更新
+    private static final long DEFAULT_FRAME_INTERVAL_NANOS = 1000000000L / 60;
+    private static final long MAX_FRAME_INTERVAL_NANOS = 100000000L;
+    //一个共享状态最多缓存几种宽度的几何，超过时替换最久没有使用的
+    private static final int MAX_CACHED_WIDTHS = 4;
+
+    //进程内共享的状态，以配置为键，状态不再被任何Drawable使用后自动移除。只在主线程访问
+    private static final WeakHashMap<WaveAnimationState, WeakReference<WaveAnimationState>> sharedStates =
+            new WeakHashMap<>();
+
     private RectF waveRect = new RectF();
+    private static final String TRACE_DRAW_SIN_WAVE = "WaveAnimationDrawable#drawSinWave";
+    private static final String TRACE_DRAW_BACKGROUND = "WaveAnimationDrawable#drawBackGround";
+    private static final String TRACE_DRAW_ATLAS_FRAME = "WaveAnimationDrawable#drawAtlasFrame";
+    //使用图集时动画状态的键，与浮点偏移的键区分开
+    private static final long ATLAS_FRAME_KEY = 1L << 63;
+
     private RectF backgroundRect = new RectF();
+    //上一次绘制的顶点数
+    private int lastVertexCount;
+    //波浪带以下的静态部分，动画过程中不会变化
+    private RectF bodyRect = new RectF();
+
+    private float curWaveAnimationHeight = 0;//此次波浪动画高度
+
+    //横向流动：一个波长渲染到tile中，通过BitmapShader横向重复，每帧只平移画布。
+    //不修改shader的矩阵：API 26以后setLocalMatrix会丢弃并重建native的shader
+    private float flowOffset;//当前的横向偏移，范围[0, waveWidth)
+    private final Paint flowPaint = new Paint();
+    //有形状遮罩时横向流动改为平移多一个波长的轮廓，遮罩的shader不随画布平移
+    private Path maskedFlowPath;
+    //每个像素的偏移级数，偏移没有跨过一级时画面不变，不需要重绘
+    private int offsetSteps = DEFAULT_OFFSET_STEPS;
 
-    private int curWaveAnimationHeight = 0;//此次波浪动画高度
-    double φ;
+    //当前的波浪高度(振幅)和动画总高度，属性变化时从原来的值平滑过渡到新的值
+    private float waveHeight;
+    private float animationTotalHeight;
+    private float fromWaveHeight;
+    private float fromAnimationTotalHeight;
+    private boolean transitionRunning;
+    //过渡开始时的动画时间，-1表示在下一帧开始
+    private long transitionStartNanos = -1;
+    private long transitionDurationNanos = DEFAULT_TRANSITION_DURATION * 1000000L;
+    //属性变化时保持往返运动的相位和横向流动的位置，动画不会跳变或重新开始
+    private long animationShiftNanos;
+    private float flowShift;
+
+    //预渲染的帧图集：低端设备上用内存换CPU，每一帧只画一张位图
+    private boolean frameAtlasEnabled;
+    private int frameAtlasFrameCount;//0表示动画高度每1px一帧
+    private final WaveFrameAtlas.Key frameAtlasKey = new WaveFrameAtlas.Key();
+    private WaveFrameAtlas frameAtlas;
+
+    //只属于该实例的误差放大倍数，大于1时逐像素折线也改为贝塞尔拟合(见WaveQualityGovernor)
+    private float curveToleranceScale = 1;
+
+    //触摸涟漪：高度场只属于该实例，叠加在正玄曲线上，静止时不参与绘制
+    private WaveRippleField rippleField;
+    private float rippleResolution = WaveRippleField.DEFAULT_RESOLUTION;
+    private WaveOutline rippleOutline;
+    private Path ripplePath;
+
+    //流水线式的几何计算：工作线程提前计算下一帧的轮廓，默认关闭
+    private WaveGeometryPipeline geometryPipeline;
+    //最近两帧动画时间的间隔，用于预测下一帧的时间
+    private long frameIntervalNanos = DEFAULT_FRAME_INTERVAL_NANOS;
+    private long lastPlayTimeNanos = -1;
+    //上一次请求预测时的动画时间，时间不变(如暂停后的重绘)时不再请求
+    private long requestedPlayTimeNanos = -1;
 
     public WaveAnimationDrawable() {
-        super();
+        this(new WaveView.WaveAttribute.Builder().build(), null);
     }
 
     public WaveAnimationDrawable(WaveView.WaveAttribute waveAttribute, Paint mPaint) {
-        super(waveAttribute, mPaint);
+        super(new WaveAnimationState(waveAttribute, mPaint), mPaint);
+        waveHeight = waveAttribute.waveHeight;
+        animationTotalHeight = waveAttribute.animationTotalHeight;
+    }
+
+    private WaveAnimationDrawable(WaveAnimationState state, Paint paint) {
+        super(state, paint);
+        waveHeight = getWaveAttribute().waveHeight;
+        animationTotalHeight = getWaveAttribute().animationTotalHeight;
+    }
+
+    /**
+     * 返回与drawable配置(WaveAttribute中除颜色以外的字段、φ、轮廓、流动速度)相同的共享Drawable：
+     * 进程中已经有相同配置的状态时用它创建新的Drawable，否则drawable的状态成为共享的状态。
+     * 列表中配置相同的View共用几何缓存和帧时钟，只有画笔(颜色、透明度)属于各自的实例，颜色不同的View也共用状态。
+     * 只在主线程调用，需要单独修改配置时先调用{@link #mutate()}
+     *
+     * @param drawable 配置好的Drawable
+     * @return 共用状态的Drawable，可能就是drawable本身
+     */
+    public static WaveAnimationDrawable share(WaveAnimationDrawable drawable) {
+        WaveAnimationState state = drawable.getAnimationState();
+        //纵向动画只设置在实例上时，以实例的属性为准；颜色不影响状态
+        if ((state.getWaveAttribute().diff(drawable.getWaveAttribute()) & ~WaveView.WaveAttribute.CHANGE_COLOR) != 0) {
+            drawable.ensureOwnState();
+            state = drawable.getAnimationState();
+            state.setWaveAttribute(drawable.getWaveAttribute());
+        }
+        WeakReference<WaveAnimationState> ref = sharedStates.get(state);
+        WaveAnimationState sharedState = ref != null ? ref.get() : null;
+        if (sharedState == state) {
+            return drawable;
+        }
+        if (sharedState == null) {
+            drawable.ensureOwnState();
+            sharedState = drawable.getAnimationState();
+            drawable.getConstantState();
+            sharedStates.put(sharedState, new WeakReference<>(sharedState));
+        }
+        //新实例的属性就是共享状态中的属性，颜色以drawable为准，只改画笔不复制状态
+        WaveAnimationDrawable shared = new WaveAnimationDrawable(sharedState, drawable.getPaint());
+        shared.setWaveAttribute(drawable.getWaveAttribute());
+        shared.setPlayTimeOffset(drawable.getPlayTimeOffset());
+        shared.setOffsetSteps(drawable.getOffsetSteps());
+        shared.setTransitionDuration(drawable.getTransitionDuration());
+        shared.setFrameAtlasEnabled(drawable.isFrameAtlasEnabled());
+        shared.setFrameAtlasFrameCount(drawable.getFrameAtlasFrameCount());
+        shared.setCurveToleranceScale(drawable.getCurveToleranceScale());
+        shared.setBounds(drawable.getBounds());
+        return shared;
+    }
+
+    private WaveAnimationState getAnimationState() {
+        return (WaveAnimationState) getWaveState();
     }
 
     /**
@@ -35,95 +176,1169 @@ public class WaveAnimationDrawable extends WaveDrawable {
      * @param φ
      */
     public void setφ(double φ) {
-        if (φ == 0) {
-            this.φ = Math.PI / 2;
+        ensureOwnState();
+        getAnimationState().φ = φ == 0 ? Math.PI / 2 : φ;
+    }
+
+    public double getφ() {
+        return getAnimationState().φ;
+    }
+
+    /**
+     * 设置波浪轮廓的绘制方式，默认为{@link #OUTLINE_POLYLINE}
+     *
+     * @param outlineMode 逐像素采样的{@link #OUTLINE_POLYLINE}、顶点更少的{@link #OUTLINE_BEZIER}，
+     *                    或不填充Path的{@link #OUTLINE_VERTICES}(硬件加速的画布在API 29以前不支持，自动改用贝塞尔拟合)
+     */
+    public void setOutlineMode(int outlineMode) {
+        if (outlineMode != OUTLINE_POLYLINE && outlineMode != OUTLINE_BEZIER && outlineMode != OUTLINE_VERTICES) {
+            throw new IllegalArgumentException("unknown outline mode: " + outlineMode);
+        }
+        ensureOwnState();
+        getAnimationState().outlineMode = outlineMode;
+        invalidateSelf();
+    }
+
+    public int getOutlineMode() {
+        return getAnimationState().outlineMode;
+    }
+
+    /**
+     * 设置贝塞尔拟合允许的最大误差，误差越小每个波长使用的曲线段越多
+     *
+     * @param curveTolerance 最大误差(px)，必须大于0
+     */
+    public void setCurveTolerance(float curveTolerance) {
+        if (!(curveTolerance > 0)) {
+            throw new IllegalArgumentException("curveTolerance must be > 0");
+        }
+        ensureOwnState();
+        getAnimationState().curveTolerance = curveTolerance;
+        invalidateSelf();
+    }
+
+    public float getCurveTolerance() {
+        return getAnimationState().curveTolerance;
+    }
+
+    /**
+     * 只对该实例放大贝塞尔拟合的误差，不修改共享的状态。大于1时每个波长的曲线段更少，
+     * {@link #OUTLINE_POLYLINE}也改为贝塞尔拟合，用于低端设备上降低绘制的开销
+     *
+     * @param curveToleranceScale 放大倍数，1表示按配置绘制
+     */
+    public void setCurveToleranceScale(float curveToleranceScale) {
+        if (!(curveToleranceScale >= 1)) {
+            throw new IllegalArgumentException("curveToleranceScale must be >= 1");
+        }
+        if (this.curveToleranceScale != curveToleranceScale) {
+            this.curveToleranceScale = curveToleranceScale;
+            invalidateSelf();
+        }
+    }
+
+    public float getCurveToleranceScale() {
+        return curveToleranceScale;
+    }
+
+    /**
+     * 开启或关闭触摸涟漪：{@link #disturb(float, float)}在触摸位置按下水面，
+     * 涟漪由带阻尼的一维波动方程推进(见{@link WaveRippleField})，叠加在正玄曲线上。
+     * 涟漪中轮廓改为逐像素折线，横向流动时不产生涟漪，静止后恢复按配置绘制
+     *
+     * @param enabled 是否开启，默认关闭
+     */
+    public void setTouchRipplesEnabled(boolean enabled) {
+        if (enabled && rippleField == null) {
+            rippleField = new WaveRippleField();
+            rippleOutline = new WaveOutline();
+            ripplePath = new Path();
+        } else if (!enabled && rippleField != null) {
+            rippleField = null;
+            rippleOutline = null;
+            ripplePath = null;
+            invalidateSelf();
+        }
+    }
+
+    public boolean isTouchRipplesEnabled() {
+        return rippleField != null;
+    }
+
+    /**
+     * 设置涟漪格点的间距，越大每一步的计算越少，涟漪越粗糙。下一次扰动时生效，正在进行的涟漪会被清除
+     *
+     * @param resolution 间距(px)，默认{@link WaveRippleField#DEFAULT_RESOLUTION}
+     */
+    public void setRippleResolution(float resolution) {
+        if (!(resolution > 0)) {
+            throw new IllegalArgumentException("resolution must be > 0");
+        }
+        this.rippleResolution = resolution;
+    }
+
+    public float getRippleResolution() {
+        return rippleResolution;
+    }
+
+    /**
+     * 在x处按下水面，深度为波浪高度的一半，影响的范围为半个波长
+     */
+    @Override
+    public void disturb(float x, float y) {
+        if (rippleField == null || isFlowing() || getIntrinsicWidth() <= 0) {
             return;
         }
-        this.φ = φ;
+        WaveView.WaveAttribute attribute = getWaveAttribute();
+        rippleField.setGrid(getIntrinsicWidth(), rippleResolution);
+        rippleField.disturb(x, waveHeight / 2, Math.max(rippleResolution, attribute.waveWidth / 2f));
+        invalidateSelf();
+    }
+
+    /**
+     * 开启或关闭流水线式的几何计算：绘制这一帧时，工作线程按预测的动画时间计算下一帧的轮廓和Path，
+     * 下一帧直接绘制算好的Path。预测不准或工作线程没有按时算完时同步计算，计入
+     * {@link #getPipelineMissCount()}。只用于贝塞尔拟合和逐像素折线，高度过渡和涟漪中同步计算
+     *
+     * @param enabled 是否开启，默认关闭
+     */
+    public void setPipelinedGeometryEnabled(boolean enabled) {
+        if (enabled && geometryPipeline == null) {
+            geometryPipeline = new WaveGeometryPipeline();
+            requestedPlayTimeNanos = -1;
+        } else if (!enabled) {
+            geometryPipeline = null;
+        }
+    }
+
+    public boolean isPipelinedGeometryEnabled() {
+        return geometryPipeline != null;
+    }
+
+    /**
+     * 直接使用了工作线程结果的帧数
+     */
+    public long getPipelineHitCount() {
+        return geometryPipeline != null ? geometryPipeline.getHitCount() : 0;
+    }
+
+    /**
+     * 工作线程没有按时算完或预测不准，改为同步计算的帧数
+     */
+    public long getPipelineMissCount() {
+        return geometryPipeline != null ? geometryPipeline.getMissCount() : 0;
+    }
+
+    /**
+     * 等待工作线程算完已经请求的下一帧，没有开启流水线时立即返回
+     */
+    void awaitPipelinedGeometry() {
+        if (geometryPipeline != null) {
+            geometryPipeline.awaitRequest();
+        }
+    }
+
+    private boolean isRippling() {
+        return rippleField != null && !rippleField.isAtRest();
+    }
+
+    private int getEffectiveOutlineMode() {
+        return curveToleranceScale > 1 ? OUTLINE_BEZIER : getAnimationState().outlineMode;
+    }
+
+    private float getEffectiveCurveTolerance() {
+        return getAnimationState().curveTolerance * curveToleranceScale;
+    }
+
+    /**
+     * 单独设置该Drawable横向流动的速度，覆盖WaveAttribute.flowSpeed
+     *
+     * @param flowSpeed 速度(px/ms)，正数向右，负数向左，0表示不流动
+     */
+    public void setFlowSpeed(float flowSpeed) {
+        int waveWidth = getWaveAttribute().waveWidth;
+        float offset = flowPosition(getPlayTimeNanos(), getFlowSpeed(), waveWidth);
+        ensureOwnState();
+        getAnimationState().flowSpeed = flowSpeed;
+        retargetFlow(offset, flowSpeed, waveWidth);
+        invalidateSelf();
+    }
+
+    public float getFlowSpeed() {
+        float flowSpeed = getAnimationState().flowSpeed;
+        return Float.isNaN(flowSpeed) ? getWaveAttribute().flowSpeed : flowSpeed;
+    }
+
+    private boolean isFlowing() {
+        return getFlowSpeed() != 0 && getWaveAttribute().waveWidth > 0;
+    }
+
+    /**
+     * 设置属性变化时波浪高度和动画总高度的过渡时长，过渡只在动画播放时进行
+     *
+     * @param durationMillis 时长(ms)，0表示直接变为新的值
+     */
+    public void setTransitionDuration(long durationMillis) {
+        if (durationMillis < 0) {
+            throw new IllegalArgumentException("durationMillis must be >= 0");
+        }
+        transitionDurationNanos = durationMillis * 1000000L;
+    }
+
+    public long getTransitionDuration() {
+        return transitionDurationNanos / 1000000L;
+    }
+
+    /**
+     * 按变化的字段更新：纵向动画保持相位，横向流动保持位置，高度的变化在动画中平滑过渡。
+     * 几何缓存按波长缓存单位振幅的值，只改变waveHeight时不需要重新采样
+     */
+    @Override
+    protected void onWaveAttributeChanged(WaveView.WaveAttribute oldAttribute, WaveView.WaveAttribute newAttribute,
+                                          int changes) {
+        long playTimeNanos = getPlayTimeNanos();
+        if ((changes & WaveView.WaveAttribute.CHANGE_ANIMATION) != 0) {
+            //新的速度或总高度从相同的相位接着运动
+            double phase = WaveGeometry.trianglePhase(playTimeNanos + animationShiftNanos,
+                    WaveGeometry.halfPeriodNanos(oldAttribute.animationTotalHeight, oldAttribute.animationSpeed));
+            double halfPeriod = WaveGeometry.halfPeriodNanos(newAttribute.animationTotalHeight,
+                    newAttribute.animationSpeed);
+            animationShiftNanos = (long) (phase * halfPeriod) - playTimeNanos;
+        }
+        if ((changes & (WaveView.WaveAttribute.CHANGE_FLOW | WaveView.WaveAttribute.CHANGE_GEOMETRY)) != 0) {
+            float stateFlowSpeed = getAnimationState().flowSpeed;
+            float oldFlowSpeed = Float.isNaN(stateFlowSpeed) ? oldAttribute.flowSpeed : stateFlowSpeed;
+            retargetFlow(flowPosition(playTimeNanos, oldFlowSpeed, oldAttribute.waveWidth), getFlowSpeed(),
+                    newAttribute.waveWidth);
+        }
+        if (oldAttribute.waveHeight != newAttribute.waveHeight
+                || oldAttribute.animationTotalHeight != newAttribute.animationTotalHeight) {
+            //横向流动的tile按waveHeight渲染，不做过渡；没有播放时没有帧推动过渡，直接使用新的值
+            if (transitionDurationNanos > 0 && !isFlowing() && getFrameClock().isRunning()) {
+                fromWaveHeight = waveHeight;
+                fromAnimationTotalHeight = animationTotalHeight;
+                transitionStartNanos = -1;
+                transitionRunning = true;
+            } else {
+                transitionRunning = false;
+                waveHeight = newAttribute.waveHeight;
+                animationTotalHeight = newAttribute.animationTotalHeight;
+            }
+        }
+        onPlayTimeChanged(playTimeNanos);
+    }
+
+    /**
+     * 根据动画时间推进高度的过渡，使用减速插值
+     */
+    private void updateTransition(long playTimeNanos, WaveView.WaveAttribute attribute) {
+        if (transitionStartNanos < 0 || playTimeNanos < transitionStartNanos) {
+            //第一帧或时间倒退(如停止后重新播放)时从当前时间开始
+            transitionStartNanos = playTimeNanos;
+        }
+        float fraction = Math.min(1f, (float) (playTimeNanos - transitionStartNanos) / transitionDurationNanos);
+        float interpolated = 1 - (1 - fraction) * (1 - fraction);
+        waveHeight = fromWaveHeight + (attribute.waveHeight - fromWaveHeight) * interpolated;
+        animationTotalHeight = fromAnimationTotalHeight
+                + (attribute.animationTotalHeight - fromAnimationTotalHeight) * interpolated;
+        if (fraction >= 1) {
+            transitionRunning = false;
+        }
+    }
+
+    /**
+     * 开启后一个纵向动画周期预渲染成位图(见{@link WaveFrameAtlasCache})，每一帧只画一张位图，
+     * 开销与波浪的复杂度无关。横向流动和高度过渡中仍然绘制矢量的波浪，图集渲染完成前也是如此
+     *
+     * @param frameAtlasEnabled 是否开启，默认关闭
+     */
+    public void setFrameAtlasEnabled(boolean frameAtlasEnabled) {
+        this.frameAtlasEnabled = frameAtlasEnabled;
+        if (!frameAtlasEnabled) {
+            frameAtlas = null;
+        }
+        invalidateSelf();
+    }
+
+    public boolean isFrameAtlasEnabled() {
+        return frameAtlasEnabled;
+    }
+
+    /**
+     * 设置图集的帧数，帧数越多纵向动画越平滑，占用的内存也越多
+     *
+     * @param frameCount 帧数，0表示动画高度每1px一帧
+     */
+    public void setFrameAtlasFrameCount(int frameCount) {
+        if (frameCount < 0) {
+            throw new IllegalArgumentException("frameCount must be >= 0");
+        }
+        this.frameAtlasFrameCount = frameCount;
+        invalidateSelf();
+    }
+
+    public int getFrameAtlasFrameCount() {
+        return frameAtlasFrameCount;
+    }
+
+    /**
+     * 上一次绘制是否使用了图集
+     */
+    public boolean isFrameAtlasInUse() {
+        return frameAtlas != null;
     }
 
     @Override
     public void draw(Canvas canvas, Paint paint) {
-        drawSinWave(canvas, paint);//先画正玄曲线
+        if (frameAtlasEnabled && drawAtlasFrame(canvas, paint)) {
+            return;
+        }
+        beginTraceSection(TRACE_DRAW_SIN_WAVE);
+        if (isFlowing()) {
+            drawFlowWave(canvas, paint);//横向流动的正玄曲线
+        } else {
+            drawSinWave(canvas, paint);//先画正玄曲线
+        }
+        endTraceSection();
+        beginTraceSection(TRACE_DRAW_BACKGROUND);
         drawBackGround(canvas, paint);//在画背景
+        endTraceSection();
     }
 
     /**
-     * 正玄函数：y=Asin(ωx+φ)+h
-     * A:决定峰值(即纵向拉伸压缩的倍数)
-     * ω:决定周期(最小正周期T=2π/|ω|)
-     * φ(初相位):决定波形与X轴位置关系或横向移动距离(左加右减)
-     * h:表示波形在Y轴的位置关系或纵向移动距离(上加下减)
+     * 设置动画偏移(纵向高度、横向流动)对齐的精度。偏移每一帧的变化小于一级时，
+     * 画面与上一帧相同，View会跳过这一帧的重绘
+     *
+     * @param offsetSteps 每个像素的级数，1为整数像素(与原来ValueAnimator的整数值相同)，0表示不对齐
+     */
+    public void setOffsetSteps(int offsetSteps) {
+        if (offsetSteps < 0) {
+            throw new IllegalArgumentException("offsetSteps must be >= 0");
+        }
+        this.offsetSteps = offsetSteps;
+    }
+
+    public int getOffsetSteps() {
+        return offsetSteps;
+    }
+
+    @Override
+    protected long getAnimationStateKey() {
+        if (transitionRunning || isRippling()) {
+            //过渡和涟漪中画面每一帧都在变化
+            return getPlayTimeNanos();
+        }
+        if (frameAtlas != null && !isFlowing()) {
+            //使用图集时画面只随帧变化
+            return ATLAS_FRAME_KEY | frameAtlas.getFrameIndex(curWaveAnimationHeight);
+        }
+        return ((long) Float.floatToIntBits(curWaveAnimationHeight) << 32)
+                | (Float.floatToIntBits(flowOffset) & 0xFFFFFFFFL);
+    }
+
+    @Override
+    public int getLastVertexCount() {
+        return lastVertexCount;
+    }
+
+    /**
+     * 正玄函数：y=Asin(ωx+φ)+h，几何计算见{@link WaveGeometry}
      */
     private void drawSinWave(Canvas canvas, Paint paint) {
         //跟随动画变化
-        int curWaveTopY = getWaveAttribute().waveHeight - curWaveAnimationHeight;
-
-        double a = getWaveAttribute().waveHeight;
-        double ω = 2 * Math.PI / getWaveAttribute().waveWidth;
-        double h = 0;
-
-        Path path = new Path();
-        PointF point = new PointF();
-        float lineY = 0;
-        //下面计算点的y值，由于Android坐标系的问题，显示在屏幕上的y都是正值。
-        //当y为负数时，则无法显示在屏幕上，我们可以设定一个阈值，令waveTopY>=y的最大值
-        //即：waveTopY>=waveHeightIncrease * minWaveHeight
-        //最合理的为：waveTopY=waveHeightIncrease * minWaveHeight;
-        int width = getIntrinsicWidth();
-        for (int x = 0; x <= width; x += 1) {
-            //正玄值
-            float y = (float) ((a * Math.sin(ω * x + φ)) + h);
-            //实际的x坐标
-            point.x = x;
-            //实际的y坐标
-            point.y = y + getWaveAttribute().animationTotalHeight + curWaveTopY;
-
-            if (x == 0) {
-                lineY = point.y;
-                //path的初始点
-                path.moveTo(point.x, lineY + 2 * (getWaveAttribute().animationTotalHeight + curWaveTopY));
-            }
-            if (x == width) {
-                //path的闭合点
-                path.lineTo(point.x, lineY + 2 * (getWaveAttribute().animationTotalHeight + curWaveTopY));
-                path.close();
-                break;
-            }
-            //canvas.drawPoint(point.x, point.y, paint);
-            path.lineTo(point.x, point.y);
-        }
-        canvas.drawPath(path, paint);
+        float curWaveTopY = waveHeight - curWaveAnimationHeight;
+        //每一帧只需要把缓存的单位正玄值乘以振幅，再加上纵向偏移
+        float offsetY = animationTotalHeight + curWaveTopY;
+
+        WaveAnimationState state = getAnimationState();
+        Geometry geometry = state.obtainGeometry(getIntrinsicWidth());
+        if (isRippling()) {
+            drawRippleWave(canvas, paint, geometry, offsetY);
+            return;
+        }
+        int mode = getEffectiveOutlineMode();
+        if (mode == OUTLINE_VERTICES) {
+            if (canDrawVertices(canvas)) {
+                //三角形带填充到波浪的最低点，以下由drawBackGround填充
+                int floatCount = geometry.obtainStripVertices(waveHeight, offsetY, offsetY + waveHeight);
+                //有形状遮罩时以顶点坐标作为遮罩的采样坐标，没有texs时shader不起作用
+                float[] texs = getMask() != null ? geometry.stripVertices : null;
+                canvas.drawVertices(Canvas.VertexMode.TRIANGLE_STRIP, floatCount, geometry.stripVertices, 0,
+                        texs, 0, null, 0, null, 0, 0, paint);
+                lastVertexCount = floatCount / 2;
+                return;
+            }
+            mode = OUTLINE_BEZIER;
+        }
+        if (geometryPipeline != null && !transitionRunning) {
+            drawPipelinedWave(canvas, paint, geometry, mode, offsetY);
+            return;
+        }
+        canvas.drawPath(state.obtainOutlinePath(geometry, mode, getEffectiveCurveTolerance(),
+                waveHeight, offsetY), paint);
+        //轮廓加上起点和闭合点
+        lastVertexCount = geometry.outline.vertexCount() + 2;
+    }
+
+    /**
+     * 流水线：先取工作线程算好的这一帧，没有时同步计算；绘制后请求工作线程计算下一帧
+     */
+    private void drawPipelinedWave(Canvas canvas, Paint paint, Geometry geometry, int mode, float offsetY) {
+        WaveAnimationState state = getAnimationState();
+        float tolerance = getEffectiveCurveTolerance();
+        int segments = mode == OUTLINE_BEZIER ? state.getSegmentsPerWave(tolerance) : 0;
+        float[] unit = mode == OUTLINE_BEZIER ? geometry.ensureCurveKnots(segments) : geometry.ensureSinSamples();
+        Path path = geometryPipeline.take(geometry, geometry.version, mode, segments, waveHeight, offsetY);
+        if (path != null) {
+            canvas.drawPath(path, paint);
+            lastVertexCount = geometryPipeline.getVertexCount() + 2;
+        } else {
+            canvas.drawPath(state.obtainOutlinePath(geometry, mode, tolerance, waveHeight, offsetY), paint);
+            lastVertexCount = geometry.outline.vertexCount() + 2;
+        }
+        long playTimeNanos = getPlayTimeNanos();
+        if (playTimeNanos == requestedPlayTimeNanos) {
+            return;
+        }
+        requestedPlayTimeNanos = playTimeNanos;
+        //下一帧的纵向偏移，与onPlayTimeChanged的计算相同
+        float nextOffsetY = animationTotalHeight + waveHeight - animationHeightAt(playTimeNanos + frameIntervalNanos);
+        int count = mode == OUTLINE_BEZIER ? geometry.curveKnotCount : geometry.width + 1;
+        geometryPipeline.request(geometry, geometry.version, mode, segments, unit, count, geometry.width,
+                waveHeight, nextOffsetY);
+    }
+
+    /**
+     * 涟漪中的轮廓：共享的采样值乘以振幅后叠加该实例的高度场，生成只属于该实例的Path
+     */
+    private void drawRippleWave(Canvas canvas, Paint paint, Geometry geometry, float offsetY) {
+        WaveOutline outline = rippleOutline;
+        WaveGeometry.polylineOutline(geometry.ensureSinSamples(), geometry.width + 1, waveHeight, offsetY, outline);
+        rippleField.addTo(outline.coords, outline.pointCount);
+        buildOutlinePath(outline, ripplePath, geometry.width, offsetY);
+        canvas.drawPath(ripplePath, paint);
+        lastVertexCount = outline.pointCount + 2;
+    }
+
+    private static boolean canDrawVertices(Canvas canvas) {
+        return !canvas.isHardwareAccelerated() || Build.VERSION.SDK_INT >= HARDWARE_VERTICES_SDK;
+    }
+
+    /**
+     * 多层融合计算(见{@link WaveLayerKernel})：该层下一次绘制需要的几何缓存还没有计算时，
+     * 返回需要的段数(逐像素折线为0)，不需要计算时返回-1
+     */
+    int getPendingLayerSegments() {
+        if (isFlowing() || getIntrinsicWidth() <= 0 || (frameAtlasEnabled && frameAtlas != null)) {
+            return -1;
+        }
+        WaveAnimationState state = getAnimationState();
+        Geometry geometry = state.obtainGeometry(getIntrinsicWidth());
+        if (getEffectiveOutlineMode() == OUTLINE_BEZIER) {
+            int segments = state.getSegmentsPerWave(getEffectiveCurveTolerance());
+            return geometry.hasCurveKnots(segments) ? -1 : segments;
+        }
+        return geometry.hasSinSamples() ? -1 : 0;
+    }
+
+    /**
+     * 使用融合计算的结果作为该层的几何缓存
+     *
+     * @param source    结果
+     * @param offset    该层在source中的起点
+     * @param knotCount 节点个数，逐像素折线时不使用
+     * @param segments  getPendingLayerSegments()返回的段数
+     */
+    void setLayerGeometry(float[] source, int offset, int knotCount, int segments) {
+        Geometry geometry = getAnimationState().obtainGeometry(getIntrinsicWidth());
+        if (segments > 0) {
+            geometry.setCurveKnots(source, offset, knotCount, segments);
+        } else {
+            geometry.setSinSamples(source, offset);
+        }
+    }
+
+    /**
+     * 用图集中与当前高度最接近的一帧代替波浪带的绘制，ALPHA_8的位图由画笔着色
+     *
+     * @return 没有可用的图集时返回false，照常绘制
+     */
+    private boolean drawAtlasFrame(Canvas canvas, Paint paint) {
+        WaveFrameAtlas atlas = obtainFrameAtlas();
+        if (atlas == null) {
+            return false;
+        }
+        beginTraceSection(TRACE_DRAW_ATLAS_FRAME);
+        canvas.drawBitmap(atlas.getFrame(atlas.getFrameIndex(curWaveAnimationHeight)), 0, 0, paint);
+        drawBody(canvas, paint, getWaveBandHeight());
+        endTraceSection();
+        lastVertexCount = 4;
+        return true;
+    }
+
+    /**
+     * 当前配置的图集，配置变化或图集被缓存移除时重新获取
+     */
+    private WaveFrameAtlas obtainFrameAtlas() {
+        //横向流动、高度过渡和涟漪中，画面不只由纵向高度决定
+        if (isFlowing() || transitionRunning || isRippling() || getIntrinsicWidth() <= 0) {
+            frameAtlas = null;
+            return null;
+        }
+        WaveView.WaveAttribute attribute = getWaveAttribute();
+        WaveAnimationState state = getAnimationState();
+        int frameCount = frameAtlasFrameCount > 0 ? frameAtlasFrameCount : attribute.animationTotalHeight + 1;
+        frameAtlasKey.set(getIntrinsicWidth(), attribute.waveWidth, attribute.waveHeight,
+                attribute.animationTotalHeight, state.φ, getAtlasOutlineMode(), getEffectiveCurveTolerance(),
+                frameCount);
+        if (frameAtlas == null || frameAtlas.isEvicted() || !frameAtlas.key.equals(frameAtlasKey)) {
+            frameAtlas = WaveFrameAtlasCache.getInstance().obtain(frameAtlasKey);
+        }
+        return frameAtlas;
+    }
+
+    /**
+     * 图集只渲染一次，三角形带改为有抗锯齿的逐像素折线
+     */
+    private int getAtlasOutlineMode() {
+        int mode = getEffectiveOutlineMode();
+        return mode == OUTLINE_VERTICES ? OUTLINE_POLYLINE : mode;
+    }
+
+    /**
+     * 在后台线程中渲染图集使用的Drawable，状态只属于它自己
+     */
+    static WaveAnimationDrawable newAtlasRenderer(WaveFrameAtlas.Key key) {
+        WaveView.WaveAttribute attribute = new WaveView.WaveAttribute.Builder()
+                .setWaveWidth(key.waveWidth)
+                .setWaveHeight(key.waveHeight)
+                .setAnimationTotalHeight(key.animationTotalHeight)
+                .setAnimationSpeed(0)
+                .setWaveColor(0xFF000000)
+                .build();
+        WaveAnimationDrawable renderer = new WaveAnimationDrawable(attribute, null);
+        WaveAnimationState state = renderer.getAnimationState();
+        state.φ = key.φ;
+        state.outlineMode = key.outlineMode;
+        state.curveTolerance = key.curveTolerance;
+        renderer.offsetSteps = 0;
+        renderer.setBounds(0, 0, key.width, key.getBandHeight());
+        return renderer;
+    }
+
+    /**
+     * 渲染图集的一帧：动画高度为height时的波浪带
+     */
+    void renderAtlasFrame(Canvas canvas, Paint paint, float height) {
+        curWaveAnimationHeight = height;
+        draw(canvas, paint);
+    }
+
+    /**
+     * 横向流动：用缓存的tile填充波浪区域，shader矩阵负责横向流动和纵向动画的平移，
+     * 每帧的开销与View的宽度无关
+     */
+    private void drawFlowWave(Canvas canvas, Paint paint) {
+        float curWaveTopY = waveHeight - curWaveAnimationHeight;
+        float offsetY = animationTotalHeight + curWaveTopY;
+        if (getMask() != null) {
+            drawMaskedFlowWave(canvas, paint, offsetY);
+            return;
+        }
+        WaveAnimationState state = getAnimationState();
+        Bitmap tile = state.ensureFlowTile(obtainPath());
+        //tile中曲线的中心线为waveHeight + 1
+        float tileTop = offsetY - getWaveAttribute().waveHeight - 1;
+
+        flowPaint.set(paint);
+        flowPaint.setShader(state.flowShader);
+        int saveCount = canvas.save();
+        canvas.translate(flowOffset, tileTop);
+        canvas.drawRect(-flowOffset, 0, getIntrinsicWidth() - flowOffset, tile.getHeight(), flowPaint);
+        canvas.restoreToCount(saveCount);
+        lastVertexCount = 4;
+    }
+
+    /**
+     * 有形状遮罩时的横向流动：遮罩是画笔的shader，tile的shader与它无法各自平移，
+     * 改为绘制宽度多一个波长的轮廓(与普通轮廓一样按纵向偏移缓存)，复制后向左平移一个波长再加上横向偏移，
+     * 覆盖[0, width]，画布和shader都不需要平移
+     */
+    private void drawMaskedFlowWave(Canvas canvas, Paint paint, float offsetY) {
+        int waveWidth = getWaveAttribute().waveWidth;
+        WaveAnimationState state = getAnimationState();
+        Geometry geometry = state.obtainGeometry(getIntrinsicWidth() + waveWidth);
+        int mode = getEffectiveOutlineMode() == OUTLINE_POLYLINE ? OUTLINE_POLYLINE : OUTLINE_BEZIER;
+        Path outline = state.obtainOutlinePath(geometry, mode, getEffectiveCurveTolerance(), waveHeight, offsetY);
+        if (maskedFlowPath == null) {
+            maskedFlowPath = new Path();
+        }
+        maskedFlowPath.set(outline);
+        maskedFlowPath.offset(flowOffset - waveWidth, 0);
+        canvas.drawPath(maskedFlowPath, paint);
+        lastVertexCount = geometry.outline.vertexCount() + 2;
+    }
+
+    /**
+     * 根据动画经过的时间计算横向偏移
+     *
+     * @param playTimeNanos 经过的时间(ns)
+     */
+    private void updateFlowOffset(long playTimeNanos) {
+        flowOffset = snapOffset(flowPosition(playTimeNanos, getFlowSpeed(), getWaveAttribute().waveWidth));
+    }
+
+    /**
+     * 横向流动的位置，包含速度变化时保留下来的偏移
+     *
+     * @return 偏移，范围[0, waveWidth)
+     */
+    private float flowPosition(long playTimeNanos, float flowSpeed, int waveWidth) {
+        if (waveWidth <= 0) {
+            return 0;
+        }
+        float offset = (WaveGeometry.flowOffset(playTimeNanos, flowSpeed, waveWidth) + flowShift) % waveWidth;
+        return offset < 0 ? offset + waveWidth : offset;
+    }
+
+    /**
+     * 流动速度或波浪宽度变化后，从原来的位置接着流动
+     *
+     * @param offset    变化前的位置
+     * @param flowSpeed 新的速度
+     * @param waveWidth 新的波浪宽度
+     */
+    private void retargetFlow(float offset, float flowSpeed, int waveWidth) {
+        flowShift = offset - WaveGeometry.flowOffset(getPlayTimeNanos(), flowSpeed, waveWidth);
+    }
+
+    /**
+     * 偏移对齐到1/offsetSteps像素
+     */
+    private float snapOffset(float offset) {
+        return offsetSteps > 0 ? (float) Math.floor(offset * offsetSteps + 0.5f) / offsetSteps : offset;
     }
 
     /**
      * 注意：由于下面画正玄波浪时，将波浪最大值Y向下移动了waveHeight 的距离
      * 所以，此处需要流出2倍正玄波浪的空间
+     * 背景分为两部分：波浪带内随动画变化的部分每帧都画；波浪带以下的静态部分
+     * 只在画布的裁剪区域包含它时才画(如在滚动容器中只露出波浪带时直接跳过)
      *
      * @param canvas
      */
     private void drawBackGround(Canvas canvas, Paint paint) {
+        float bandBottom = getWaveBandHeight();
+
         backgroundRect.left = 0;
-        backgroundRect.top = 2 * getWaveAttribute().waveHeight + getWaveAttribute().animationTotalHeight - curWaveAnimationHeight;
+        backgroundRect.top = 2 * waveHeight + animationTotalHeight - curWaveAnimationHeight;
         backgroundRect.right = getIntrinsicWidth();
-        backgroundRect.bottom = getWaveAttribute().waveHeight + getIntrinsicHeight();
+        backgroundRect.bottom = bandBottom;
+        if (backgroundRect.bottom > backgroundRect.top) {
+            canvas.drawRect(backgroundRect, paint);
+        }
+        drawBody(canvas, paint, bandBottom);
+    }
 
-        canvas.drawRect(backgroundRect, paint);
+    /**
+     * 波浪带以下的静态部分
+     */
+    private void drawBody(Canvas canvas, Paint paint, float bandBottom) {
+        bodyRect.left = 0;
+        bodyRect.top = bandBottom;
+        bodyRect.right = getIntrinsicWidth();
+        bodyRect.bottom = waveHeight + getIntrinsicHeight();
+        if (!canvas.quickReject(bodyRect, Canvas.EdgeType.BW)) {
+            canvas.drawRect(bodyRect, paint);
+        }
+    }
+
+    /**
+     * 波浪带的高度：动画过程中波浪(包括横向流动的tile)只会出现在[0, animationTotalHeight + 2 * waveHeight]内
+     */
+    private int getWaveBandHeight() {
+        return (int) Math.ceil(animationTotalHeight + 2 * waveHeight);
     }
 
+    /**
+     * 波浪的最低点以下完全被填充，多留1px避开抗锯齿的边缘，涟漪中最低点再向下移动涟漪的最大高度
+     */
     @Override
-    public ValueAnimator onCreateAnimator() {
-        ValueAnimator animator = ValueAnimator.ofInt(0, getWaveAttribute().animationTotalHeight);
-        animator.setDuration((long) (getWaveAttribute().animationTotalHeight / getWaveAttribute().animationSpeed));
-        animator.setRepeatCount(-1);
-        animator.setRepeatMode(ValueAnimator.REVERSE);
-        addUpdateListener(new ValueAnimator.AnimatorUpdateListener() {
-            @Override
-            public void onAnimationUpdate(ValueAnimator animation) {
-                curWaveAnimationHeight = (int) animation.getAnimatedValue();
-                invalidateSelf();
-            }
-        });
-        return animator;
+    public float getCoveredTop() {
+        float lowest = 2 * waveHeight + animationTotalHeight - curWaveAnimationHeight;
+        if (isRippling()) {
+            lowest += rippleField.getMaxHeight();
+        }
+        return drawBounds.top + (float) Math.ceil(lowest) + 1;
+    }
+
+    @Override
+    protected void computeDirtyBounds(Rect outRect) {
+        //多1px，包含横向流动时tile上下的留白
+        int bottom = Math.min(drawBounds.top + getWaveBandHeight() + 1, drawBounds.bottom);
+        outRect.set(drawBounds.left, drawBounds.top, drawBounds.right, bottom);
+    }
+
+    /**
+     * 纵向动画为0 → animationTotalHeight → 0的往返运动，
+     * 由时间直接计算出浮点的高度，不再依赖ValueAnimator的整数值
+     */
+    @Override
+    protected void onPlayTimeChanged(long playTimeNanos) {
+        WaveView.WaveAttribute attribute = getWaveAttribute();
+        if (transitionRunning) {
+            updateTransition(playTimeNanos, attribute);
+        }
+        curWaveAnimationHeight = animationHeightAt(playTimeNanos);
+        if (lastPlayTimeNanos >= 0 && playTimeNanos > lastPlayTimeNanos
+                && playTimeNanos - lastPlayTimeNanos <= MAX_FRAME_INTERVAL_NANOS) {
+            frameIntervalNanos = playTimeNanos - lastPlayTimeNanos;
+        }
+        lastPlayTimeNanos = playTimeNanos;
+        if (isFlowing()) {
+            updateFlowOffset(playTimeNanos);
+        }
+        if (rippleField != null) {
+            //静止时直接返回
+            rippleField.advance(playTimeNanos);
+        }
+    }
+
+    /**
+     * 动画时间为playTimeNanos时的纵向高度
+     */
+    private float animationHeightAt(long playTimeNanos) {
+        WaveView.WaveAttribute attribute = getWaveAttribute();
+        double halfPeriod = WaveGeometry.halfPeriodNanos(attribute.animationTotalHeight, attribute.animationSpeed);
+        double phase = WaveGeometry.trianglePhase(playTimeNanos + animationShiftNanos, halfPeriod);
+        return snapOffset((float) (WaveGeometry.triangleFraction(phase) * animationTotalHeight));
+    }
+
+    /**
+     * 将轮廓转换成闭合的Path。
+     * 下面计算点的y值，由于Android坐标系的问题，显示在屏幕上的y都是正值。
+     * 当y为负数时，则无法显示在屏幕上，我们可以设定一个阈值，令waveTopY>=y的最大值
+     * 即：waveTopY>=waveHeightIncrease * minWaveHeight
+     * 最合理的为：waveTopY=waveHeightIncrease * minWaveHeight;
+     * 只使用参数，可以在工作线程中调用(见{@link WaveGeometryPipeline})
+     */
+    static void buildOutlinePath(WaveOutline outline, Path path, int width, float offsetY) {
+        path.rewind();
+        float[] coords = outline.coords;
+        //path的初始点和闭合点
+        float bottomY = coords[1] + 2 * offsetY;
+
+        path.moveTo(0, bottomY);
+        path.lineTo(coords[0], coords[1]);
+        if (outline.mode == WaveOutline.MODE_BEZIER) {
+            int c = 2;
+            for (int i = 0; i < outline.segmentCount; i++, c += 6) {
+                path.cubicTo(coords[c], coords[c + 1], coords[c + 2], coords[c + 3], coords[c + 4], coords[c + 5]);
+            }
+        } else {
+            for (int i = 1; i < outline.pointCount; i++) {
+                path.lineTo(coords[i * 2], coords[i * 2 + 1]);
+            }
+        }
+        path.lineTo(width, bottomY);
+        path.close();
+    }
+
+    /**
+     * 共享的状态：配置(φ、轮廓、流动速度)和只与配置、宽度有关的几何缓存。
+     * 使用同一个帧时钟时，各个Drawable在同一帧中的纵向偏移相同，轮廓的Path只生成一次
+     */
+    static final class WaveAnimationState extends WaveState {
+        double φ;
+        int outlineMode = OUTLINE_POLYLINE;
+        float curveTolerance = DEFAULT_CURVE_TOLERANCE;
+        float flowSpeed = Float.NaN;//NaN表示使用WaveAttribute.flowSpeed
+
+        //按宽度缓存的几何，大小相同的View直接共用
+        private final Geometry[] geometries = new Geometry[MAX_CACHED_WIDTHS];
+        private long geometryUseCount;
+        //贝塞尔拟合每个波长的段数，由waveHeight和curveTolerance决定
+        private int segmentsPerWave;
+        private int segmentsWaveHeight = -1;
+        private float segmentsTolerance;
+
+        //横向流动的tile，与宽度无关
+        private Bitmap flowTile;
+        BitmapShader flowShader;
+        private boolean flowTileValid;
+        //tile与复制出的状态共用，重新渲染时需要新建，不能擦除或回收
+        private boolean flowTileShared;
+        private int tileWaveWidth;
+        private int tileWaveHeight;
+        private double tileφ;
+
+        WaveAnimationState(WaveView.WaveAttribute waveAttribute, Paint paint) {
+            super(waveAttribute, paint);
+        }
+
+        /**
+         * 修改配置前复制：几何缓存复制一份，参数没有变化的部分(如只改变waveHeight时的单位采样值)不需要重新计算
+         */
+        WaveAnimationState(WaveAnimationState orig) {
+            super(orig);
+            φ = orig.φ;
+            outlineMode = orig.outlineMode;
+            curveTolerance = orig.curveTolerance;
+            flowSpeed = orig.flowSpeed;
+            for (int i = 0; i < geometries.length; i++) {
+                if (orig.geometries[i] != null) {
+                    geometries[i] = new Geometry(orig.geometries[i]);
+                }
+            }
+            geometryUseCount = orig.geometryUseCount;
+            if (orig.flowTileValid) {
+                flowTile = orig.flowTile;
+                flowShader = orig.flowShader;
+                flowTileValid = true;
+                tileWaveWidth = orig.tileWaveWidth;
+                tileWaveHeight = orig.tileWaveHeight;
+                tileφ = orig.tileφ;
+                flowTileShared = true;
+                orig.flowTileShared = true;
+            }
+        }
+
+        void setWaveAttribute(WaveView.WaveAttribute waveAttribute) {
+            this.waveAttribute = waveAttribute;
+        }
+
+        @Override
+        protected WaveState copy() {
+            return new WaveAnimationState(this);
+        }
+
+        @Override
+        public Drawable newDrawable() {
+            return new WaveAnimationDrawable(this, null);
+        }
+
+        /**
+         * 获取该宽度的几何缓存，几何参数(waveWidth、φ)变化时使缓存失效
+         */
+        Geometry obtainGeometry(int width) {
+            Geometry geometry = null;
+            int eldest = 0;
+            for (int i = 0; i < geometries.length; i++) {
+                Geometry g = geometries[i];
+                if (g == null) {
+                    geometry = geometries[i] = new Geometry();
+                    break;
+                }
+                if (g.width == width) {
+                    geometry = g;
+                    break;
+                }
+                if (g.lastUse < geometries[eldest].lastUse) {
+                    eldest = i;
+                }
+            }
+            if (geometry == null) {
+                geometry = geometries[eldest];
+            }
+            geometry.lastUse = ++geometryUseCount;
+            geometry.validate(width, waveAttribute.waveWidth, φ);
+            return geometry;
+        }
+
+        /**
+         * 获取该帧的轮廓Path，与上一次的振幅、纵向偏移、轮廓方式和段数相同时直接返回上一次的Path
+         *
+         * @param mode      轮廓方式，实例放大误差时可能与outlineMode不同
+         * @param tolerance 贝塞尔拟合的误差，实例放大误差时可能与curveTolerance不同
+         * @param amplitude 当前的波浪高度，过渡中可能与waveAttribute.waveHeight不同
+         */
+        Path obtainOutlinePath(Geometry geometry, int mode, float tolerance, float amplitude, float offsetY) {
+            //段数变化时ensureCurveKnots会让Path失效
+            float[] knots = mode == OUTLINE_BEZIER ? geometry.ensureCurveKnots(getSegmentsPerWave(tolerance)) : null;
+            if (geometry.pathValid && geometry.pathOffsetY == offsetY && geometry.pathAmplitude == amplitude
+                    && geometry.pathMode == mode) {
+                return geometry.outlinePath;
+            }
+            if (mode == OUTLINE_BEZIER) {
+                WaveGeometry.bezierOutline(knots,
+                        geometry.curveKnotCount, amplitude, offsetY, geometry.outline);
+            } else {
+                WaveGeometry.polylineOutline(geometry.ensureSinSamples(), geometry.width + 1,
+                        amplitude, offsetY, geometry.outline);
+            }
+            geometry.buildOutlinePath(offsetY);
+            geometry.pathOffsetY = offsetY;
+            geometry.pathAmplitude = amplitude;
+            geometry.pathMode = mode;
+            geometry.pathValid = true;
+            return geometry.outlinePath;
+        }
+
+        /**
+         * 段数按目标的waveHeight计算，高度过渡中保持不变，节点不需要每帧重新计算
+         */
+        int getSegmentsPerWave(float tolerance) {
+            if (segmentsWaveHeight != waveAttribute.waveHeight || segmentsTolerance != tolerance) {
+                segmentsWaveHeight = waveAttribute.waveHeight;
+                segmentsTolerance = tolerance;
+                segmentsPerWave = WaveGeometry.segmentsPerWave(segmentsWaveHeight, tolerance);
+            }
+            return segmentsPerWave;
+        }
+
+        /**
+         * 渲染一个波长的tile：宽度为waveWidth，高度为2*waveHeight + 2(上下各留1px)，
+         * 曲线以下为不透明。使用ALPHA_8，颜色由画笔决定，改变颜色不需要重新渲染
+         *
+         * @param path 渲染时使用的Path
+         */
+        Bitmap ensureFlowTile(Path path) {
+            WaveView.WaveAttribute attribute = waveAttribute;
+            if (flowTileValid && tileWaveWidth == attribute.waveWidth && tileWaveHeight == attribute.waveHeight
+                    && tileφ == φ) {
+                return flowTile;
+            }
+            tileWaveWidth = attribute.waveWidth;
+            tileWaveHeight = attribute.waveHeight;
+            tileφ = φ;
+
+            int tileWidth = attribute.waveWidth;
+            int tileHeight = 2 * attribute.waveHeight + 2;
+            if (flowTile == null || flowTileShared
+                    || flowTile.getWidth() != tileWidth || flowTile.getHeight() != tileHeight) {
+                if (flowTile != null && !flowTileShared) {
+                    flowTile.recycle();
+                }
+                flowTileShared = false;
+                flowTile = Bitmap.createBitmap(tileWidth, tileHeight, Bitmap.Config.ALPHA_8);
+                flowShader = new BitmapShader(flowTile, Shader.TileMode.REPEAT, Shader.TileMode.CLAMP);
+            } else {
+                flowTile.eraseColor(0);
+            }
+
+            float[] samples = new float[tileWidth + 1];
+            WaveGeometry.sampleSine(samples, tileWidth + 1, attribute.waveHeight, WaveGeometry.omega(tileWidth), φ);
+            float centerY = attribute.waveHeight + 1;
+            path.moveTo(0, tileHeight);
+            for (int x = 0; x <= tileWidth; x++) {
+                path.lineTo(x, samples[x] + centerY);
+            }
+            path.lineTo(tileWidth, tileHeight);
+            path.close();
+
+            Paint tilePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+            tilePaint.setStyle(Paint.Style.FILL);
+            tilePaint.setColor(0xFF000000);
+            new Canvas(flowTile).drawPath(path, tilePaint);
+            flowTileValid = true;
+            return flowTile;
+        }
+
+        /**
+         * 共享时以配置为键，画笔和属性中的颜色属于各个实例，不参与比较
+         */
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof WaveAnimationState)) {
+                return false;
+            }
+            WaveAnimationState other = (WaveAnimationState) o;
+            return Double.doubleToLongBits(φ) == Double.doubleToLongBits(other.φ)
+                    && outlineMode == other.outlineMode
+                    && Float.floatToIntBits(curveTolerance) == Float.floatToIntBits(other.curveTolerance)
+                    && Float.floatToIntBits(flowSpeed) == Float.floatToIntBits(other.flowSpeed)
+                    && (waveAttribute.diff(other.waveAttribute) & ~WaveView.WaveAttribute.CHANGE_COLOR) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            long φBits = Double.doubleToLongBits(φ);
+            int result = waveAttribute.waveWidth;
+            result = 31 * result + waveAttribute.waveHeight;
+            result = 31 * result + waveAttribute.animationTotalHeight;
+            result = 31 * result + Float.floatToIntBits(waveAttribute.animationSpeed);
+            result = 31 * result + Float.floatToIntBits(waveAttribute.flowSpeed);
+            result = 31 * result + waveAttribute.targetFps;
+            result = 31 * result + (int) (φBits ^ (φBits >>> 32));
+            result = 31 * result + outlineMode;
+            result = 31 * result + Float.floatToIntBits(curveTolerance);
+            result = 31 * result + Float.floatToIntBits(flowSpeed);
+            return result;
+        }
+    }
+
+    /**
+     * 某一宽度的几何缓存：振幅为1的正玄曲线采样值、贝塞尔拟合的节点和上一帧的轮廓。
+     * 动画只改变纵向偏移，振幅在生成轮廓时乘上，所以只在宽度、waveWidth、φ变化时重新采样
+     */
+    private static final class Geometry {
+        int width = -1;
+        private int waveWidth;
+        private double φ;
+        long lastUse;
+        //采样值或节点每次变化时加1，流水线据此判断副本是否过期
+        int version;
+
+        //正玄曲线的采样缓存：sinSamples[x] = sin(ωx+φ)
+        private float[] sinSamples = new float[0];
+        private boolean samplesValid;
+
+        //贝塞尔拟合的节点缓存，每个节点依次为：x, sin(ωx+φ), 斜率(见WaveGeometry.curveKnots)
+        private float[] curveKnots = new float[0];
+        int curveKnotCount;
+        private int knotsSegments;
+        private boolean knotsValid;
+
+        //三角形带的顶点，每一帧原地更新y
+        float[] stripVertices = new float[0];
+        private int stripFloatCount;
+        private float stripAmplitude;
+        private float stripOffsetY;
+        private float stripBottomY;
+        private boolean stripValid;
+
+        //上一帧的轮廓坐标和Path，振幅和纵向偏移相同时直接使用
+        final WaveOutline outline = new WaveOutline();
+        final Path outlinePath = new Path();
+        float pathOffsetY;
+        float pathAmplitude;
+        int pathMode;
+        boolean pathValid;
+
+        Geometry() {
+        }
+
+        /**
+         * 复制采样值和节点，轮廓在下一次绘制时重新生成
+         */
+        Geometry(Geometry orig) {
+            width = orig.width;
+            waveWidth = orig.waveWidth;
+            φ = orig.φ;
+            lastUse = orig.lastUse;
+            sinSamples = orig.sinSamples.clone();
+            samplesValid = orig.samplesValid;
+            curveKnots = orig.curveKnots.clone();
+            curveKnotCount = orig.curveKnotCount;
+            knotsSegments = orig.knotsSegments;
+            knotsValid = orig.knotsValid;
+        }
+
+        void validate(int width, int waveWidth, double φ) {
+            if (this.width == width
+                    && this.waveWidth == waveWidth
+                    && this.φ == φ) {
+                return;
+            }
+            this.width = width;
+            this.waveWidth = waveWidth;
+            this.φ = φ;
+            samplesValid = false;
+            knotsValid = false;
+            pathValid = false;
+            stripValid = false;
+        }
+
+        /**
+         * 采样正玄曲线 y=sin(ωx+φ)，结果按x缓存
+         */
+        float[] ensureSinSamples() {
+            if (samplesValid) {
+                return sinSamples;
+            }
+            if (sinSamples.length < width + 1) {
+                sinSamples = new float[width + 1];
+            }
+            WaveGeometry.sampleSine(sinSamples, width + 1, 1, WaveGeometry.omega(waveWidth), φ);
+            samplesValid = true;
+            version++;
+            return sinSamples;
+        }
+
+        boolean hasSinSamples() {
+            return samplesValid;
+        }
+
+        boolean hasCurveKnots(int segmentsPerWave) {
+            return knotsValid && knotsSegments == segmentsPerWave;
+        }
+
+        /**
+         * 复制多层融合计算的采样值，长度为width + 1
+         */
+        void setSinSamples(float[] source, int offset) {
+            if (sinSamples.length < width + 1) {
+                sinSamples = new float[width + 1];
+            }
+            System.arraycopy(source, offset, sinSamples, 0, width + 1);
+            samplesValid = true;
+            version++;
+            pathValid = false;
+            stripValid = false;
+        }
+
+        /**
+         * 更新三角形带的顶点，与上一次的振幅、纵向偏移和底边相同时直接使用
+         *
+         * @return 使用的float个数
+         */
+        int obtainStripVertices(float amplitude, float offsetY, float bottomY) {
+            if (stripValid && samplesValid && stripAmplitude == amplitude && stripOffsetY == offsetY
+                    && stripBottomY == bottomY) {
+                return stripFloatCount;
+            }
+            float[] samples = ensureSinSamples();
+            if (stripVertices.length < (width + 1) * 4) {
+                stripVertices = new float[(width + 1) * 4];
+            }
+            stripFloatCount = WaveGeometry.triangleStrip(samples, width + 1, amplitude, offsetY, bottomY,
+                    stripVertices);
+            stripAmplitude = amplitude;
+            stripOffsetY = offsetY;
+            stripBottomY = bottomY;
+            stripValid = true;
+            return stripFloatCount;
+        }
+
+        /**
+         * 复制多层融合计算的节点
+         */
+        void setCurveKnots(float[] source, int offset, int knotCount, int segmentsPerWave) {
+            if (curveKnots.length < knotCount * WaveGeometry.KNOT_STRIDE) {
+                curveKnots = new float[knotCount * WaveGeometry.KNOT_STRIDE];
+            }
+            System.arraycopy(source, offset, curveKnots, 0, knotCount * WaveGeometry.KNOT_STRIDE);
+            curveKnotCount = knotCount;
+            knotsSegments = segmentsPerWave;
+            knotsValid = true;
+            version++;
+            pathValid = false;
+        }
+
+        /**
+         * 计算振幅为1的贝塞尔拟合节点，段数相同时直接使用缓存，与像素宽度无关
+         */
+        float[] ensureCurveKnots(int segmentsPerWave) {
+            if (knotsValid && knotsSegments == segmentsPerWave) {
+                return curveKnots;
+            }
+            int knotCount = WaveGeometry.curveKnotCount(width, waveWidth, segmentsPerWave);
+            if (curveKnots.length < knotCount * WaveGeometry.KNOT_STRIDE) {
+                curveKnots = new float[knotCount * WaveGeometry.KNOT_STRIDE];
+            }
+            curveKnotCount = WaveGeometry.curveKnots(curveKnots, width, waveWidth, segmentsPerWave, 1, φ);
+            knotsSegments = segmentsPerWave;
+            knotsValid = true;
+            version++;
+            pathValid = false;
+            return curveKnots;
+        }
+
+        void buildOutlinePath(float offsetY) {
+            WaveAnimationDrawable.buildOutlinePath(outline, outlinePath, width, offsetY);
+        }
     }
 }
@@ -0,0 +1,208 @@
+package com.inkhjw.thewaveview.waveview.drawable;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author hjw
+ * 一个纵向动画周期(0 → animationTotalHeight → 0)预渲染的帧。
+ * 去程和回程的画面相同，只渲染高度从0到animationTotalHeight的帧。
+ * 每一帧只包含波浪带，使用ALPHA_8，绘制时由画笔着色，颜色不同的波浪共用同一个图集
+ */
+
+final class WaveFrameAtlas {
+    /**
+     * 决定图集画面的配置，颜色和动画速度不影响画面
+     */
+    static final class Key {
+        int width;
+        int waveWidth;
+        int waveHeight;
+        int animationTotalHeight;
+        double φ;
+        int outlineMode;
+        float curveTolerance;
+        int frameCount;
+
+        Key() {
+        }
+
+        Key(Key source) {
+            set(source.width, source.waveWidth, source.waveHeight, source.animationTotalHeight, source.φ,
+                    source.outlineMode, source.curveTolerance, source.frameCount);
+        }
+
+        void set(int width, int waveWidth, int waveHeight, int animationTotalHeight, double φ, int outlineMode,
+                 float curveTolerance, int frameCount) {
+            this.width = width;
+            this.waveWidth = waveWidth;
+            this.waveHeight = waveHeight;
+            this.animationTotalHeight = animationTotalHeight;
+            this.φ = φ;
+            this.outlineMode = outlineMode;
+            this.curveTolerance = curveTolerance;
+            this.frameCount = frameCount;
+        }
+
+        /**
+         * 波浪带的高度，多1px包含抗锯齿的边缘
+         */
+        int getBandHeight() {
+            return animationTotalHeight + 2 * waveHeight + 1;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return width == other.width
+                    && waveWidth == other.waveWidth
+                    && waveHeight == other.waveHeight
+                    && animationTotalHeight == other.animationTotalHeight
+                    && Double.doubleToLongBits(φ) == Double.doubleToLongBits(other.φ)
+                    && outlineMode == other.outlineMode
+                    && Float.floatToIntBits(curveTolerance) == Float.floatToIntBits(other.curveTolerance)
+                    && frameCount == other.frameCount;
+        }
+
+        @Override
+        public int hashCode() {
+            long φBits = Double.doubleToLongBits(φ);
+            int result = width;
+            result = 31 * result + waveWidth;
+            result = 31 * result + waveHeight;
+            result = 31 * result + animationTotalHeight;
+            result = 31 * result + (int) (φBits ^ (φBits >>> 32));
+            result = 31 * result + outlineMode;
+            result = 31 * result + Float.floatToIntBits(curveTolerance);
+            result = 31 * result + frameCount;
+            return result;
+        }
+    }
+
+    final Key key;
+    private final Bitmap[] frames;
+    private long byteCount;
+    private volatile boolean failed;
+    //已经从缓存中移除，使用它的Drawable在下一次绘制时放弃它
+    private volatile boolean evicted;
+
+    WaveFrameAtlas(Key key) {
+        this.key = key;
+        this.frames = new Bitmap[key.frameCount];
+    }
+
+    /**
+     * 渲染前估算的内存
+     */
+    static long estimateByteCount(Key key) {
+        return (long) key.width * key.getBandHeight() * key.frameCount;
+    }
+
+    /**
+     * 在executor中并行渲染，每个任务使用自己的Drawable和几何缓存，互不共享。
+     * 所有帧渲染完成(或失败)后在最后完成的线程中回调onBuilt
+     *
+     * @param executor    后台线程
+     * @param parallelism 任务数
+     * @param onBuilt     完成的回调
+     */
+    void build(Executor executor, int parallelism, final Runnable onBuilt) {
+        final int tasks = Math.max(1, Math.min(parallelism, frames.length));
+        final AtomicInteger remaining = new AtomicInteger(tasks);
+        for (int t = 0; t < tasks; t++) {
+            final int first = t;
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        renderFrames(first, tasks);
+                    } catch (Throwable e) {
+                        //内存不足或渲染出错时放弃图集，回到逐帧计算
+                        failed = true;
+                    } finally {
+                        //无论成功与否都要通知缓存，否则这个配置一直处于构建中
+                        if (remaining.decrementAndGet() == 0) {
+                            finishBuild(onBuilt);
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    private void finishBuild(Runnable onBuilt) {
+        if (!failed) {
+            long bytes = 0;
+            for (Bitmap frame : frames) {
+                bytes += (long) frame.getRowBytes() * frame.getHeight();
+            }
+            byteCount = bytes;
+        }
+        onBuilt.run();
+    }
+
+    private void renderFrames(int first, int step) {
+        WaveAnimationDrawable renderer = WaveAnimationDrawable.newAtlasRenderer(key);
+        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        paint.setStyle(Paint.Style.FILL);
+        paint.setColor(0xFF000000);
+        for (int i = first; i < frames.length && !failed; i += step) {
+            Bitmap frame = Bitmap.createBitmap(key.width, key.getBandHeight(), Bitmap.Config.ALPHA_8);
+            renderer.renderAtlasFrame(new Canvas(frame), paint, getFrameHeight(i));
+            frames[i] = frame;
+        }
+    }
+
+    /**
+     * 第index帧的动画高度
+     */
+    private float getFrameHeight(int index) {
+        return frames.length > 1 ? (float) key.animationTotalHeight * index / (frames.length - 1) : 0;
+    }
+
+    /**
+     * 与动画高度最接近的帧
+     *
+     * @param height 当前的动画高度，范围[0, animationTotalHeight]
+     */
+    int getFrameIndex(float height) {
+        if (frames.length <= 1 || key.animationTotalHeight <= 0) {
+            return 0;
+        }
+        int index = Math.round(height / key.animationTotalHeight * (frames.length - 1));
+        return Math.max(0, Math.min(frames.length - 1, index));
+    }
+
+    Bitmap getFrame(int index) {
+        return frames[index];
+    }
+
+    long getByteCount() {
+        return byteCount;
+    }
+
+    boolean isFailed() {
+        return failed;
+    }
+
+    boolean isEvicted() {
+        return evicted;
+    }
+
+    /**
+     * 从缓存中移除，不回收位图：正在使用它的Drawable可能还在绘制，放弃引用后由GC回收
+     */
+    void evict() {
+        evicted = true;
+    }
+}
@@ -0,0 +1,213 @@
+package com.inkhjw.thewaveview.waveview.drawable;
+
+import android.annotation.TargetApi;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.os.Build;
+import android.os.Process;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author hjw
+ * 进程内预渲染帧图集的缓存，以画面相关的配置和宽度为键，按字节数限制大小，超过时移除最久没有使用的图集。
+ * 图集在后台线程中并行渲染，渲染完成前Drawable照常绘制矢量的波浪。
+ * 可以在任意线程访问(WaveSurfaceView的渲染线程也会使用)
+ */
+
+public final class WaveFrameAtlasCache {
+    //默认的内存上限：1080px宽、30px动画高度的图集约1.7MB
+    public static final long DEFAULT_MAX_BYTES = 8 * 1024 * 1024;
+    //渲染图集的线程数上限
+    private static final int MAX_PARALLELISM = 4;
+    private static final long THREAD_KEEP_ALIVE_SECONDS = 5;
+
+    private static final WaveFrameAtlasCache instance = new WaveFrameAtlasCache();
+
+    //按访问顺序排列，最前面的是最久没有使用的
+    private final LinkedHashMap<WaveFrameAtlas.Key, WaveFrameAtlas> atlases = new LinkedHashMap<>(16, 0.75f, true);
+    //正在渲染的图集
+    private final HashMap<WaveFrameAtlas.Key, WaveFrameAtlas> building = new HashMap<>();
+    //渲染时内存不足的配置，不再重试，直到缓存被清空或调整大小
+    private final HashSet<WaveFrameAtlas.Key> failed = new HashSet<>();
+    private long maxBytes = DEFAULT_MAX_BYTES;
+    private long sizeBytes;
+
+    private final int parallelism;
+    private ThreadPoolExecutor executor;
+    private boolean callbacksRegistered;
+
+    private WaveFrameAtlasCache() {
+        parallelism = Math.max(1, Math.min(MAX_PARALLELISM, Runtime.getRuntime().availableProcessors()));
+    }
+
+    public static WaveFrameAtlasCache getInstance() {
+        return instance;
+    }
+
+    /**
+     * 设置缓存的内存上限，超过时移除最久没有使用的图集
+     *
+     * @param maxBytes 字节数，单个图集超过上限时不会渲染
+     */
+    public synchronized void setMaxBytes(long maxBytes) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("maxBytes must be >= 0");
+        }
+        this.maxBytes = maxBytes;
+        failed.clear();
+        trimToSize(maxBytes);
+    }
+
+    public synchronized long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * 当前缓存的图集占用的字节数
+     */
+    public synchronized long getSizeBytes() {
+        return sizeBytes;
+    }
+
+    /**
+     * 注册系统的内存回调，内存紧张时自动释放图集。只注册一次，也可以在Application中转发{@link #onTrimMemory(int)}
+     *
+     * @param context 任意Context，使用ApplicationContext注册
+     */
+    public void registerComponentCallbacks(Context context) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
+            return;
+        }
+        synchronized (this) {
+            if (callbacksRegistered) {
+                return;
+            }
+            callbacksRegistered = true;
+        }
+        context.getApplicationContext().registerComponentCallbacks(new TrimMemoryCallbacks());
+    }
+
+    /**
+     * 按系统的内存等级释放图集：后台或内存严重不足时全部释放，内存偏低或界面不可见时释放一半
+     *
+     * @param level ComponentCallbacks2的TRIM_MEMORY_*
+     */
+    public synchronized void onTrimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            evictAll();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            trimToSize(maxBytes / 2);
+        }
+    }
+
+    public synchronized void evictAll() {
+        trimToSize(0);
+        failed.clear();
+    }
+
+    /**
+     * 获取已经渲染好的图集，还没有时开始在后台渲染并返回null
+     *
+     * @param key 配置，只在第一次渲染时复制，调用者可以重复使用
+     * @return 图集，正在渲染或无法渲染时为null
+     */
+    synchronized WaveFrameAtlas obtain(WaveFrameAtlas.Key key) {
+        WaveFrameAtlas atlas = atlases.get(key);
+        if (atlas != null || building.containsKey(key) || failed.contains(key)) {
+            return atlas;
+        }
+        if (WaveFrameAtlas.estimateByteCount(key) > maxBytes) {
+            return null;
+        }
+        final WaveFrameAtlas newAtlas = new WaveFrameAtlas(new WaveFrameAtlas.Key(key));
+        building.put(newAtlas.key, newAtlas);
+        newAtlas.build(getExecutor(), parallelism, new Runnable() {
+            @Override
+            public void run() {
+                onBuilt(newAtlas);
+            }
+        });
+        return null;
+    }
+
+    /**
+     * 等待正在渲染的图集全部完成。用于需要确定图集可用时机的场合(如测试)
+     */
+    synchronized void awaitBuilding() throws InterruptedException {
+        while (!building.isEmpty()) {
+            wait();
+        }
+    }
+
+    private synchronized void onBuilt(WaveFrameAtlas atlas) {
+        building.remove(atlas.key);
+        notifyAll();
+        if (atlas.isFailed()) {
+            failed.add(atlas.key);
+            return;
+        }
+        atlases.put(atlas.key, atlas);
+        sizeBytes += atlas.getByteCount();
+        trimToSize(maxBytes);
+    }
+
+    private void trimToSize(long size) {
+        Iterator<WaveFrameAtlas> iterator = atlases.values().iterator();
+        while (sizeBytes > size && iterator.hasNext()) {
+            WaveFrameAtlas atlas = iterator.next();
+            iterator.remove();
+            sizeBytes -= atlas.getByteCount();
+            atlas.evict();
+        }
+    }
+
+    private ThreadPoolExecutor getExecutor() {
+        if (executor == null) {
+            executor = new ThreadPoolExecutor(parallelism, parallelism, THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable r) {
+                    Thread thread = new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                            r.run();
+                        }
+                    }, "WaveFrameAtlas");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            //不渲染时不保留线程
+            executor.allowCoreThreadTimeOut(true);
+        }
+        return executor;
+    }
+
+    @TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
+    private class TrimMemoryCallbacks implements ComponentCallbacks2 {
+        @Override
+        public void onTrimMemory(int level) {
+            WaveFrameAtlasCache.this.onTrimMemory(level);
+        }
+
+        @Override
+        public void onConfigurationChanged(Configuration newConfig) {
+        }
+
+        @Override
+        public void onLowMemory() {
+            evictAll();
+        }
+    }
+}
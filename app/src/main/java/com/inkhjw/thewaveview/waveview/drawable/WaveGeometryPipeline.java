@@ -0,0 +1,233 @@
+package com.inkhjw.thewaveview.waveview.drawable;
+
+import android.graphics.Path;
+import android.os.Process;
+
+import com.inkhjw.thewaveview.core.WaveGeometry;
+import com.inkhjw.thewaveview.core.WaveOutline;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * @author hjw
+ * 流水线式的轮廓计算：绘制线程画第N帧时，工作线程按预测的动画时间计算第N+1帧的轮廓和Path。
+ * <p>
+ * 两份预先分配的缓冲(轮廓坐标和Path)：绘制线程使用front，工作线程只写另一份。
+ * 交接只通过一个原子状态(IDLE → REQUESTED → READY)，不加锁；请求通过侵入式的无锁栈交给工作线程，
+ * 工作线程空闲时park，整个过程不创建任何对象。
+ * 下一帧的参数与预测不同或工作线程还没有算完时，这一帧由绘制线程同步计算，并计入未命中的次数
+ */
+
+final class WaveGeometryPipeline {
+    private static final int IDLE = 0;
+    private static final int REQUESTED = 1;
+    private static final int READY = 2;
+
+    /**
+     * 一帧的轮廓和Path，以及计算它使用的参数
+     */
+    private static final class Frame {
+        final WaveOutline outline = new WaveOutline();
+        final Path path = new Path();
+        int inputSerial = -1;
+        float amplitude;
+        float offsetY;
+    }
+
+    private final AtomicInteger state = new AtomicInteger(IDLE);
+    private final Frame[] frames = {new Frame(), new Frame()};
+    //绘制线程正在使用的一份，只在绘制线程中修改，写入后才设置REQUESTED
+    private int front;
+    //工作线程的请求栈中的下一个
+    private WaveGeometryPipeline next;
+
+    //请求的输入：单位振幅的采样值或贝塞尔节点的副本，只在没有请求进行时由绘制线程更新
+    private float[] unit = new float[0];
+    private int unitCount;//采样点数或节点数
+    private int mode;
+    private int width;
+    private int inputSerial;
+    //副本对应的几何缓存，版本变化时重新复制
+    private Object source;
+    private int sourceVersion;
+    private int sourceSegments;
+    private float requestAmplitude;
+    private float requestOffsetY;
+
+    private long hitCount;
+    private long missCount;
+    //在awaitRequest中等待的线程
+    private volatile Thread waiter;
+
+    /**
+     * 取出与这一帧参数相同的Path，没有时返回null，由调用者同步计算
+     *
+     * @param source   几何缓存
+     * @param version  几何缓存的版本
+     * @param mode     轮廓方式
+     * @param segments 贝塞尔拟合每个波长的段数，逐像素折线为0
+     */
+    Path take(Object source, int version, int mode, int segments, float amplitude, float offsetY) {
+        boolean sameInput = isSameInput(source, version, mode, segments);
+        int current = state.get();
+        if (current == READY) {
+            Frame frame = frames[1 - front];
+            state.set(IDLE);
+            if (sameInput && matches(frame, amplitude, offsetY)) {
+                front = 1 - front;
+                hitCount++;
+                return frame.path;
+            }
+            //预测的时间或参数与实际不同
+            missCount++;
+        } else if (current == REQUESTED) {
+            //工作线程没有按时算完
+            missCount++;
+            return null;
+        }
+        //同一帧再次绘制(如其他原因引起的重绘)
+        Frame frame = frames[front];
+        return sameInput && matches(frame, amplitude, offsetY) ? frame.path : null;
+    }
+
+    /**
+     * 请求工作线程计算下一帧，已经有请求正在进行时忽略
+     *
+     * @param geometry 单位振幅的采样值或贝塞尔节点
+     * @param count    采样点数或节点数
+     */
+    void request(Object source, int version, int mode, int segments, float[] geometry, int count, int width,
+                 float amplitude, float offsetY) {
+        if (state.get() != IDLE) {
+            return;
+        }
+        if (!isSameInput(source, version, mode, segments)) {
+            int size = mode == WaveAnimationDrawable.OUTLINE_BEZIER ? count * WaveGeometry.KNOT_STRIDE : count;
+            if (unit.length < size) {
+                unit = new float[size];
+            }
+            System.arraycopy(geometry, 0, unit, 0, size);
+            unitCount = count;
+            this.mode = mode;
+            this.width = width;
+            this.source = source;
+            sourceVersion = version;
+            sourceSegments = segments;
+            inputSerial++;
+        }
+        requestAmplitude = amplitude;
+        requestOffsetY = offsetY;
+        state.set(REQUESTED);
+        Worker.getInstance().enqueue(this);
+    }
+
+    private boolean isSameInput(Object source, int version, int mode, int segments) {
+        return this.source == source && sourceVersion == version && this.mode == mode && sourceSegments == segments;
+    }
+
+    private boolean matches(Frame frame, float amplitude, float offsetY) {
+        return frame.inputSerial == inputSerial && frame.amplitude == amplitude && frame.offsetY == offsetY;
+    }
+
+    /**
+     * 在工作线程中计算请求的一帧
+     */
+    private void compute() {
+        Frame frame = frames[1 - front];
+        if (mode == WaveAnimationDrawable.OUTLINE_BEZIER) {
+            WaveGeometry.bezierOutline(unit, unitCount, requestAmplitude, requestOffsetY, frame.outline);
+        } else {
+            WaveGeometry.polylineOutline(unit, unitCount, requestAmplitude, requestOffsetY, frame.outline);
+        }
+        WaveAnimationDrawable.buildOutlinePath(frame.outline, frame.path, width, requestOffsetY);
+        frame.inputSerial = inputSerial;
+        frame.amplitude = requestAmplitude;
+        frame.offsetY = requestOffsetY;
+        state.set(READY);
+        Thread thread = waiter;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * 等待工作线程算完正在进行的请求，没有请求时立即返回。用于需要确定交接时机的场合(如测试)
+     */
+    void awaitRequest() {
+        //先登记再检查状态，与compute中先设置状态再读取waiter对应，不会错过唤醒
+        waiter = Thread.currentThread();
+        while (state.get() == REQUESTED) {
+            LockSupport.park(this);
+        }
+        waiter = null;
+    }
+
+    /**
+     * 使用的一帧的轮廓，用于统计顶点数
+     */
+    int getVertexCount() {
+        return frames[front].outline.vertexCount();
+    }
+
+    long getHitCount() {
+        return hitCount;
+    }
+
+    long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * 进程内唯一的工作线程，处理所有Drawable的请求
+     */
+    private static final class Worker extends Thread {
+        private static Worker instance;
+
+        //请求栈的栈顶，绘制线程压入，工作线程一次取出全部
+        private final AtomicReference<WaveGeometryPipeline> head = new AtomicReference<>();
+
+        static synchronized Worker getInstance() {
+            if (instance == null) {
+                instance = new Worker();
+                instance.start();
+            }
+            return instance;
+        }
+
+        private Worker() {
+            super("WaveGeometryWorker");
+            setDaemon(true);
+        }
+
+        void enqueue(WaveGeometryPipeline pipeline) {
+            WaveGeometryPipeline top;
+            do {
+                top = head.get();
+                pipeline.next = top;
+            } while (!head.compareAndSet(top, pipeline));
+            LockSupport.unpark(this);
+        }
+
+        @Override
+        public void run() {
+            //与绘制相同的优先级，否则容易错过下一帧
+            Process.setThreadPriority(Process.THREAD_PRIORITY_DISPLAY);
+            while (true) {
+                WaveGeometryPipeline pipeline = head.getAndSet(null);
+                if (pipeline == null) {
+                    //enqueue先于park时，park会立即返回
+                    LockSupport.park(this);
+                    continue;
+                }
+                while (pipeline != null) {
+                    WaveGeometryPipeline next = pipeline.next;
+                    pipeline.next = null;
+                    pipeline.compute();
+                    pipeline = next;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.inkhjw.thewaveview.waveview.drawable;
+
+import com.inkhjw.thewaveview.core.WaveGeometry;
+import com.inkhjw.thewaveview.waveview.WaveDrawable;
+
+import java.util.List;
+
+/**
+ * @author hjw
+ * 多层波浪的融合几何计算：各层只有初相位不同时，每一列只计算一次sin(ωx)、cos(ωx)，
+ * 由和角公式一次得出所有层的采样值或节点(见{@link WaveGeometry#sampleSineLayers})，
+ * 三角函数的开销不再随层数增加。结果先写入按层连续存放的缓冲，再复制到各层的几何缓存。
+ * 只在一个线程中使用(View的主线程或渲染线程)
+ */
+
+public final class WaveLayerKernel {
+    private WaveAnimationDrawable[] group = new WaveAnimationDrawable[0];
+    private double[] phases = new double[0];
+    //每一层的cosφ、sinφ
+    private double[] rotations = new double[0];
+    private float[] buffer = new float[0];
+
+    /**
+     * 绘制前调用：几何缓存失效的层按宽度、波长和段数分组，每组融合计算一次。
+     * 所有层的缓存都有效时不计算也不创建对象
+     *
+     * @param layers 各层的Drawable，不是WaveAnimationDrawable的层照常各自计算
+     */
+    public void prepare(List<? extends WaveDrawable> layers) {
+        int size = layers.size();
+        if (group.length < size) {
+            group = new WaveAnimationDrawable[size];
+            phases = new double[size];
+            rotations = new double[2 * size];
+        }
+        //每一组计算后组内的层都不再需要计算，最多size组
+        for (int pass = 0; pass < size; pass++) {
+            int count = 0;
+            int segments = -1;
+            int width = 0;
+            int waveWidth = 0;
+            for (int i = 0; i < size; i++) {
+                WaveDrawable waveDrawable = layers.get(i);
+                if (!(waveDrawable instanceof WaveAnimationDrawable)) {
+                    continue;
+                }
+                WaveAnimationDrawable layer = (WaveAnimationDrawable) waveDrawable;
+                int layerSegments = layer.getPendingLayerSegments();
+                if (layerSegments < 0) {
+                    continue;
+                }
+                if (count == 0) {
+                    segments = layerSegments;
+                    width = layer.getIntrinsicWidth();
+                    waveWidth = layer.getWaveAttribute().waveWidth;
+                } else if (layerSegments != segments || layer.getIntrinsicWidth() != width
+                        || layer.getWaveAttribute().waveWidth != waveWidth) {
+                    continue;
+                }
+                group[count] = layer;
+                phases[count] = layer.getφ();
+                count++;
+            }
+            if (count == 0) {
+                break;
+            }
+            compute(count, segments, width, waveWidth);
+        }
+        //不持有Drawable的引用
+        for (int i = 0; i < size; i++) {
+            group[i] = null;
+        }
+    }
+
+    private void compute(int count, int segments, int width, int waveWidth) {
+        if (segments > 0) {
+            int stride = WaveGeometry.curveKnotCount(width, waveWidth, segments) * WaveGeometry.KNOT_STRIDE;
+            ensureBuffer(count * stride);
+            int knotCount = WaveGeometry.curveKnotsLayers(buffer, stride, width, waveWidth, segments, phases, count,
+                    rotations);
+            for (int l = 0; l < count; l++) {
+                group[l].setLayerGeometry(buffer, l * stride, knotCount, segments);
+            }
+        } else {
+            int stride = width + 1;
+            ensureBuffer(count * stride);
+            WaveGeometry.sampleSineLayers(buffer, stride, stride, WaveGeometry.omega(waveWidth), phases, count,
+                    rotations);
+            for (int l = 0; l < count; l++) {
+                group[l].setLayerGeometry(buffer, l * stride, 0, 0);
+            }
+        }
+    }
+
+    private void ensureBuffer(int length) {
+        if (buffer.length < length) {
+            buffer = new float[length];
+        }
+    }
+}
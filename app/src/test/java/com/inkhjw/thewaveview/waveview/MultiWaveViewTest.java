@@ -0,0 +1,90 @@
+package com.inkhjw.thewaveview.waveview;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.view.View;
+
+import com.inkhjw.thewaveview.waveview.drawable.WaveAnimationDrawable;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author hjw
+ * 由LayerConfig创建的层：颜色按配置算好，随顶层属性的变化而更新；渲染统计按帧计数
+ */
+
+@RunWith(RobolectricTestRunner.class)
+public class MultiWaveViewTest {
+
+    @Test
+    public void flowSpeedChangeRescalesLayers() {
+        MultiWaveView multiWaveView = new MultiWaveView(RuntimeEnvironment.getApplication());
+        int layerCount = multiWaveView.getLayerConfig().layerCount;
+        //默认不流动，也没有覆盖属性中的速度
+        for (int i = 0; i < layerCount; i++) {
+            assertEquals(0f, layer(multiWaveView, i).getFlowSpeed(), 0f);
+        }
+
+        multiWaveView.setWaveAttributes(multiWaveView.getWaveAttributes().buildUpon().setFlowSpeed(0.3f).build());
+        for (int i = 0; i < layerCount; i++) {
+            assertEquals(0.3f * (i + 1) / layerCount, layer(multiWaveView, i).getFlowSpeed(), 1e-6f);
+        }
+
+        multiWaveView.setWaveAttributes(multiWaveView.getWaveAttributes().buildUpon().setFlowSpeed(-0.6f).build());
+        for (int i = 0; i < layerCount; i++) {
+            assertEquals(-0.6f * (i + 1) / layerCount, layer(multiWaveView, i).getFlowSpeed(), 1e-6f);
+        }
+    }
+
+    @Test
+    public void layerColorsResolveFromTopColor() {
+        MultiWaveView multiWaveView = new MultiWaveView(RuntimeEnvironment.getApplication());
+        multiWaveView.setLayerConfig(multiWaveView.getLayerConfig().buildUpon()
+                .setLayerCount(6)
+                .setBottomAlpha(0.5f)
+                .build());
+        //每一层的颜色在配置时算好，最顶层就是waveColor
+        int waveColor = multiWaveView.getWaveAttributes().waveColor;
+        int[] colors = multiWaveView.getLayerConfig().resolveColors(waveColor);
+        assertEquals(6, colors.length);
+        assertEquals(waveColor, colors[5]);
+        assertEquals(0x80, colors[0] >>> 24);
+        //每一层按顺序使用算好的颜色
+        for (int i = 0; i < colors.length; i++) {
+            assertEquals(colors[i], layer(multiWaveView, i).getPaintColor());
+        }
+    }
+
+    @Test
+    public void renderStatsCountDrawnFrames() {
+        MultiWaveView multiWaveView = new MultiWaveView(RuntimeEnvironment.getApplication());
+        multiWaveView.measure(View.MeasureSpec.makeMeasureSpec(1080, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(600, View.MeasureSpec.EXACTLY));
+        multiWaveView.layout(0, 0, 1080, 600);
+        multiWaveView.setRenderStatsEnabled(true);
+        Canvas canvas = new Canvas(Bitmap.createBitmap(1080, 600, Bitmap.Config.ARGB_8888));
+        WaveFrameClock frameClock = multiWaveView.getFrameClock();
+        frameClock.start();
+        //每一次时钟回调都绘制一帧
+        for (int i = 1; i <= 10; i++) {
+            WaveClockService.getInstance().doFrame(i * 16666667L);
+            multiWaveView.onDraw(canvas);
+        }
+        frameClock.stop();
+
+        WaveRenderStats stats = multiWaveView.getRenderStats();
+        assertEquals(10, stats.getFrameCount());
+        assertEquals(10, stats.getClockCallbacks());
+        assertTrue(stats.getLastVertexCount() > 0);
+    }
+
+    private static WaveAnimationDrawable layer(MultiWaveView multiWaveView, int layer) {
+        return (WaveAnimationDrawable) multiWaveView.getLayer(layer);
+    }
+}
@@ -0,0 +1,82 @@
+package com.inkhjw.thewaveview.waveview;
+
+import android.content.Context;
+import android.util.AttributeSet;
+
+import com.inkhjw.thewaveview.R;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * @author hjw
+ * 相同的样式和相同的值得到同一个驻留的属性
+ */
+
+@RunWith(RobolectricTestRunner.class)
+public class WaveAttributeTest {
+    //列表中同时显示的行数
+    private static final int ROWS = 20;
+
+    @Test
+    public void identicalStylesResolveToOneAttribute() {
+        Context context = RuntimeEnvironment.getApplication();
+        WaveView.WaveAttribute[] rows = new WaveView.WaveAttribute[ROWS];
+        for (int i = 0; i < ROWS; i++) {
+            rows[i] = WaveView.WaveAttribute.obtain(context, buildAttributeSet());
+        }
+        //相同的样式只解析一次，所有行使用同一个属性实例
+        for (int i = 1; i < ROWS; i++) {
+            assertSame(rows[0], rows[i]);
+        }
+        //由Builder创建的相同配置也得到同一个实例
+        WaveView.WaveAttribute inflated = rows[0];
+        WaveView.WaveAttribute built = inflated.buildUpon().build();
+        assertSame(inflated, built);
+    }
+
+    @Test
+    public void constructorsDoNotIntern() {
+        WaveView.WaveAttribute built = new WaveView.WaveAttribute.Builder().build();
+        WaveView.WaveAttribute constructed = new WaveView.WaveAttribute();
+        assertEquals(built, constructed);
+        assertNotSame(built, constructed);
+        assertSame(built, WaveView.WaveAttribute.intern(constructed));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void zeroWaveWidthIsRejected() {
+        new WaveView.WaveAttribute.Builder().setWaveWidth(0).build();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void zeroWaveHeightIsRejected() {
+        new WaveView.WaveAttribute.Builder().setWaveHeight(0).build();
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void deprecatedConstructorsMatchObtain() {
+        Context context = RuntimeEnvironment.getApplication();
+        WaveView.WaveAttribute obtained = WaveView.WaveAttribute.obtain(context, buildAttributeSet());
+        assertEquals(obtained, new WaveView.WaveAttribute(context, buildAttributeSet()));
+        assertEquals(obtained, new WaveView.WaveAttribute(obtained));
+    }
+
+    private static AttributeSet buildAttributeSet() {
+        return Robolectric.buildAttributeSet()
+                .addAttribute(R.attr.waveWidth, "270")
+                .addAttribute(R.attr.waveHeight, "10")
+                .addAttribute(R.attr.anim_totalHeight, "30")
+                .addAttribute(R.attr.anim_speed, "0.02")
+                .addAttribute(R.attr.anim_color, "#F6A2A4")
+                .build();
+    }
+}
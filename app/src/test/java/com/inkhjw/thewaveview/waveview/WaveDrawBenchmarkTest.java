@@ -0,0 +1,378 @@
+package com.inkhjw.thewaveview.waveview;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.os.Trace;
+import android.util.AttributeSet;
+import android.view.LayoutInflater;
+import android.view.View;
+
+import com.inkhjw.thewaveview.R;
+import com.inkhjw.thewaveview.waveview.drawable.WaveAnimationDrawable;
+import com.inkhjw.thewaveview.waveview.drawable.WaveDrawableTestHelper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.GraphicsMode;
+import org.robolectric.util.ReflectionHelpers;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Locale;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author hjw
+ * 在JVM上inflate波浪View，通过全局的时钟服务用确定的帧时间驱动几千帧，统计每次绘制的耗时，
+ * 并检查稳定状态下的绘制没有创建任何对象，防止以后的修改把每帧的分配带回绘制路径。
+ * 使用原生图形模式，Canvas/Path由真实的native实现完成，不会因为影子类记录绘制操作而产生分配。
+ * 只统计View的onDraw(即各个WaveDrawable的draw)，View.draw中框架自身的开销不在统计范围内
+ */
+
+@RunWith(RobolectricTestRunner.class)
+//原生图形模式依赖API 29的HardwareRenderer
+@Config(sdk = 29)
+@GraphicsMode(GraphicsMode.Mode.NATIVE)
+public class WaveDrawBenchmarkTest {
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 600;
+    //60fps的帧间隔
+    private static final long FRAME_NANOS = 16666667L;
+    //预热：填充采样缓存、流动模式的贴图，并让JIT编译Robolectric的调用分派(解释执行时会装箱参数)。
+    //每批帧都有分配时继续预热，直到一批帧没有分配或者超过上限
+    private static final int WARM_UP_BATCH_FRAMES = 500;
+    private static final int MAX_WARM_UP_FRAMES = 20000;
+    //统计的一批帧，其中不能有任何一帧分配
+    private static final int MEASURED_FRAMES = 3000;
+    //预热之后JIT仍可能重新编译沙箱中Robolectric插桩的框架方法(如Paint.getColor、Color.toArgb)，
+    //偶尔有一帧分配几十到几百字节，之后不再出现。有分配的一批帧不计入结果，重新统计下一批，最多这么多批。
+    //我们的代码每MEASURED_FRAMES帧内至少分配一次时，每一批都有分配，一定会失败
+    private static final int MAX_MEASURED_BATCHES = 3;
+    //列表中同时显示的行数
+    private static final int ROWS = 20;
+
+    private static final com.sun.management.ThreadMXBean THREAD_MX_BEAN =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    /**
+     * 被测的View：帧时钟和波浪的绘制
+     */
+    private interface DrawTarget {
+        WaveFrameClock getFrameClock();
+
+        void onDraw(Canvas canvas);
+    }
+
+    private Context context;
+    private Canvas canvas;
+    //读取分配计数本身的开销，从结果中扣除
+    private long allocationOverhead;
+    private long frameTimeNanos;
+    private long drawNanos;
+    private long allocatedBytes;
+
+    @Before
+    public void setUp() {
+        assertTrue("thread allocation tracking is not supported by this JVM",
+                THREAD_MX_BEAN.isThreadAllocatedMemorySupported());
+        THREAD_MX_BEAN.setThreadAllocatedMemoryEnabled(true);
+        //与设备上没有抓取systrace时一致，否则影子类会记录每一个区间
+        setAppTracingAllowed(false);
+        context = RuntimeEnvironment.getApplication();
+        canvas = new Canvas(Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888));
+        allocationOverhead = allocatedBytes();
+        allocationOverhead = allocatedBytes() - allocationOverhead;
+    }
+
+    @After
+    public void tearDown() {
+        setAppTracingAllowed(true);
+    }
+
+    @Test
+    public void waveViewBezierDrawDoesNotAllocate() {
+        WaveView waveView = inflateWaveView();
+        WaveAnimationDrawable drawable = WaveDrawableTestHelper.newDrawable(waveView.getWaveAttribute());
+        drawable.setOutlineMode(WaveAnimationDrawable.OUTLINE_BEZIER);
+        waveView.setWaveDrawable(drawable);
+        layout(waveView);
+        assertDrawDoesNotAllocate("WaveView bezier", target(waveView));
+    }
+
+    @Test
+    public void waveViewPolylineDrawDoesNotAllocate() {
+        //默认的轮廓就是逐像素的折线
+        WaveView waveView = inflateWaveView();
+        assertDrawDoesNotAllocate("WaveView polyline", target(waveView));
+    }
+
+    @Test
+    public void waveViewVerticesDrawDoesNotAllocate() {
+        WaveView waveView = inflateWaveView();
+        WaveAnimationDrawable drawable = WaveDrawableTestHelper.newDrawable(waveView.getWaveAttribute());
+        drawable.setOutlineMode(WaveAnimationDrawable.OUTLINE_VERTICES);
+        waveView.setWaveDrawable(drawable);
+        layout(waveView);
+        assertDrawDoesNotAllocate("WaveView vertices", target(waveView));
+    }
+
+    @Test
+    public void waveViewFlowDrawDoesNotAllocate() {
+        WaveView waveView = inflateWaveView();
+        WaveAnimationDrawable drawable = WaveDrawableTestHelper.newDrawable(waveView.getWaveAttribute());
+        drawable.setFlowSpeed(0.1f);
+        waveView.setWaveDrawable(drawable);
+        layout(waveView);
+        assertDrawDoesNotAllocate("WaveView flow", target(waveView));
+    }
+
+    @Test
+    public void waveViewFrameAtlasDrawDoesNotAllocate() throws InterruptedException {
+        WaveView waveView = inflateWaveView();
+        WaveAnimationDrawable drawable = WaveDrawableTestHelper.newDrawable(waveView.getWaveAttribute());
+        drawable.setFrameAtlasEnabled(true);
+        waveView.setWaveDrawable(drawable);
+        //第一次绘制开始在后台线程中渲染图集，完成前照常绘制矢量的波浪
+        waveView.onDraw(canvas);
+        WaveDrawableTestHelper.awaitFrameAtlases();
+        assertDrawDoesNotAllocate("WaveView atlas", target(waveView));
+    }
+
+    @Test
+    public void sharedWaveViewRowsDrawDoesNotAllocate() {
+        final WaveView[] rows = new WaveView[ROWS];
+        for (int i = 0; i < ROWS; i++) {
+            rows[i] = inflateWaveView();
+        }
+        //配置相同的行共用同一个帧时钟(见WaveViewTest)，推进一次即可
+        assertDrawDoesNotAllocate("WaveView x" + ROWS + " shared", new DrawTarget() {
+            @Override
+            public WaveFrameClock getFrameClock() {
+                return rows[0].getFrameClock();
+            }
+
+            @Override
+            public void onDraw(Canvas canvas) {
+                for (int i = 0; i < rows.length; i++) {
+                    rows[i].onDraw(canvas);
+                }
+            }
+        });
+    }
+
+    @Test
+    public void multiWaveViewDrawDoesNotAllocate() {
+        MultiWaveView multiWaveView = inflateMultiWaveView();
+        assertDrawDoesNotAllocate("MultiWaveView", target(multiWaveView));
+    }
+
+    @Test
+    public void multiWaveViewWithoutOcclusionCullingDrawDoesNotAllocate() {
+        MultiWaveView multiWaveView = inflateMultiWaveView();
+        multiWaveView.setOcclusionCulling(false);
+        assertDrawDoesNotAllocate("MultiWaveView no culling", target(multiWaveView));
+    }
+
+    @Test
+    public void sixLayerMultiWaveViewDrawDoesNotAllocate() {
+        MultiWaveView multiWaveView = inflateMultiWaveView();
+        multiWaveView.setLayerConfig(multiWaveView.getLayerConfig().buildUpon()
+                .setLayerCount(6)
+                .setBottomAlpha(0.5f)
+                .build());
+        assertDrawDoesNotAllocate("MultiWaveView x6 layers", target(multiWaveView));
+    }
+
+    @Test
+    public void waveViewRippleDrawDoesNotAllocate() {
+        final WaveView waveView = inflateWaveView();
+        final WaveAnimationDrawable drawable = WaveDrawableTestHelper.newDrawable(waveView.getWaveAttribute());
+        waveView.setWaveDrawable(drawable);
+        waveView.setTouchRipplesEnabled(true);
+        layout(waveView);
+        //每隔一段时间在新的位置触摸一次，涟漪一直没有静止。触摸在帧回调中，只统计绘制
+        waveView.getFrameClock().addFrameListener(new WaveFrameClock.OnFrameListener() {
+            private int frame;
+
+            @Override
+            public void onFrame(long playTimeNanos) {
+                if (frame++ % 30 == 0) {
+                    drawable.disturb((frame * 37) % WIDTH, 0);
+                }
+            }
+        });
+        assertDrawDoesNotAllocate("WaveView ripple", target(waveView));
+    }
+
+    @Test
+    public void pipelinedMultiWaveViewDrawDoesNotAllocate() {
+        MultiWaveView multiWaveView = inflateMultiWaveView();
+        WaveView.WaveAttribute attribute = multiWaveView.getWaveAttributes();
+        ArrayList<WaveDrawable> layers = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            layers.add(WaveDrawableTestHelper.newDrawable(attribute));
+        }
+        multiWaveView.setWaveDrawables(layers);
+        multiWaveView.setPipelinedGeometryEnabled(true);
+        assertDrawDoesNotAllocate("MultiWaveView pipelined", target(multiWaveView));
+    }
+
+    @Test
+    public void maskedWaveViewDrawDoesNotAllocate() {
+        WaveView waveView = inflateWaveView();
+        waveView.setShapeMask(WaveShapeMask.circle());
+        assertDrawDoesNotAllocate("WaveView circle mask", target(waveView));
+    }
+
+    @Test
+    public void maskedFlowWaveViewDrawDoesNotAllocate() {
+        WaveView waveView = inflateWaveView();
+        WaveAnimationDrawable drawable = WaveDrawableTestHelper.newDrawable(waveView.getWaveAttribute());
+        drawable.setFlowSpeed(0.1f);
+        waveView.setWaveDrawable(drawable);
+        waveView.setShapeMask(WaveShapeMask.circle());
+        assertDrawDoesNotAllocate("WaveView flow circle mask", target(waveView));
+    }
+
+    @Test
+    public void renderStatsDoNotAllocate() {
+        MultiWaveView multiWaveView = inflateMultiWaveView();
+        multiWaveView.setRenderStatsEnabled(true);
+        assertDrawDoesNotAllocate("MultiWaveView stats", target(multiWaveView));
+    }
+
+    @Test
+    public void multiWaveViewReducedQualityDrawDoesNotAllocate() {
+        MultiWaveView multiWaveView = inflateMultiWaveView();
+        multiWaveView.setAdaptiveQualityEnabled(true);
+        multiWaveView.getQualityGovernor().pinLevel(WaveQualityGovernor.LEVEL_LOW_FPS);
+        assertDrawDoesNotAllocate("MultiWaveView reduced quality", target(multiWaveView));
+    }
+
+    private WaveView inflateWaveView() {
+        AttributeSet attrs = Robolectric.buildAttributeSet()
+                .addAttribute(R.attr.waveWidth, "270")
+                .addAttribute(R.attr.waveHeight, "10")
+                .addAttribute(R.attr.anim_totalHeight, "30")
+                .addAttribute(R.attr.anim_speed, "0.02")
+                .addAttribute(R.attr.anim_color, "#F6A2A4")
+                .build();
+        WaveView waveView = new WaveView(context, attrs);
+        layout(waveView);
+        return waveView;
+    }
+
+    private MultiWaveView inflateMultiWaveView() {
+        View root = LayoutInflater.from(context).inflate(R.layout.activity_main, null);
+        MultiWaveView multiWaveView = (MultiWaveView) root.findViewById(R.id.wave_view);
+        layout(multiWaveView);
+        return multiWaveView;
+    }
+
+    private static DrawTarget target(final WaveView waveView) {
+        return new DrawTarget() {
+            @Override
+            public WaveFrameClock getFrameClock() {
+                return waveView.getFrameClock();
+            }
+
+            @Override
+            public void onDraw(Canvas canvas) {
+                waveView.onDraw(canvas);
+            }
+        };
+    }
+
+    private static DrawTarget target(final MultiWaveView multiWaveView) {
+        return new DrawTarget() {
+            @Override
+            public WaveFrameClock getFrameClock() {
+                return multiWaveView.getFrameClock();
+            }
+
+            @Override
+            public void onDraw(Canvas canvas) {
+                multiWaveView.onDraw(canvas);
+            }
+        };
+    }
+
+    private static void layout(View view) {
+        view.measure(View.MeasureSpec.makeMeasureSpec(WIDTH, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(HEIGHT, View.MeasureSpec.EXACTLY));
+        view.layout(0, 0, WIDTH, HEIGHT);
+    }
+
+    /**
+     * 逐帧推进时钟并绘制，只统计onDraw中的分配和耗时
+     */
+    private void assertDrawDoesNotAllocate(String name, DrawTarget target) {
+        WaveFrameClock frameClock = target.getFrameClock();
+        frameClock.start();
+        frameTimeNanos = 0;
+
+        int warmUpFrames = 0;
+        int allocatingFrames;
+        do {
+            allocatingFrames = drawFrames(target, WARM_UP_BATCH_FRAMES);
+            warmUpFrames += WARM_UP_BATCH_FRAMES;
+        } while (allocatingFrames > 0 && warmUpFrames < MAX_WARM_UP_FRAMES);
+
+        //每一批有分配的帧数
+        StringBuilder batches = new StringBuilder();
+        int measuredBatches = 0;
+        do {
+            drawNanos = 0;
+            allocatedBytes = 0;
+            allocatingFrames = drawFrames(target, MEASURED_FRAMES);
+            measuredBatches++;
+            batches.append(measuredBatches > 1 ? ", " : "").append(allocatingFrames);
+        } while (allocatingFrames > 0 && measuredBatches < MAX_MEASURED_BATCHES);
+        frameClock.stop();
+
+        assertTrue(String.format(Locale.US,
+                "%s allocated in every batch of %d steady-state frames (allocating frames per batch: %s; "
+                        + "last batch %d bytes; %d warm-up frames; %.1f us/draw)",
+                name, MEASURED_FRAMES, batches, allocatedBytes, warmUpFrames,
+                drawNanos / 1000.0 / MEASURED_FRAMES), allocatingFrames == 0);
+    }
+
+    /**
+     * @return 这些帧中onDraw有分配的帧数
+     */
+    private int drawFrames(DrawTarget target, int frames) {
+        WaveClockService clockService = WaveClockService.getInstance();
+        int allocatingFrames = 0;
+        for (int i = 0; i < frames; i++) {
+            frameTimeNanos += FRAME_NANOS;
+            clockService.doFrame(frameTimeNanos);
+            long startBytes = allocatedBytes();
+            long startNanos = System.nanoTime();
+            target.onDraw(canvas);
+            drawNanos += System.nanoTime() - startNanos;
+            long allocated = allocatedBytes() - startBytes - allocationOverhead;
+            if (allocated > 0) {
+                allocatingFrames++;
+                allocatedBytes += allocated;
+            }
+        }
+        return allocatingFrames;
+    }
+
+    private static void setAppTracingAllowed(boolean allowed) {
+        ReflectionHelpers.callStaticMethod(Trace.class, "setAppTracingAllowed",
+                ReflectionHelpers.ClassParameter.from(boolean.class, allowed));
+    }
+
+    private static long allocatedBytes() {
+        return THREAD_MX_BEAN.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
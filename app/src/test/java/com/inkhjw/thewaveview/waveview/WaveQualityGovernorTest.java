@@ -0,0 +1,90 @@
+package com.inkhjw.thewaveview.waveview;
+
+import com.inkhjw.thewaveview.waveview.drawable.WaveAnimationDrawable;
+import com.inkhjw.thewaveview.waveview.drawable.WaveDrawableTestHelper;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author hjw
+ * 质量等级随绘制耗时升降，并应用到MultiWaveView的每一层
+ */
+
+@RunWith(RobolectricTestRunner.class)
+public class WaveQualityGovernorTest {
+
+    @Test
+    public void qualityGovernorStepsWithHysteresis() {
+        MultiWaveView multiWaveView = new MultiWaveView(RuntimeEnvironment.getApplication());
+        WaveView.WaveAttribute attribute = multiWaveView.getWaveAttributes();
+        ArrayList<WaveDrawable> layers = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            layers.add(WaveDrawableTestHelper.newDrawable(attribute));
+        }
+        multiWaveView.setWaveDrawables(layers);
+        multiWaveView.setAdaptiveQualityEnabled(true);
+        WaveQualityGovernor governor = multiWaveView.getQualityGovernor();
+        final ArrayList<Integer> levels = new ArrayList<>();
+        governor.setOnQualityChangeListener(new WaveQualityGovernor.OnQualityChangeListener() {
+            @Override
+            public void onQualityChanged(int oldLevel, int newLevel) {
+                levels.add(newLevel);
+            }
+        });
+        long overBudget = 2 * WaveQualityGovernor.DEFAULT_FRAME_BUDGET_NANOS;
+        long headroom = WaveQualityGovernor.DEFAULT_FRAME_BUDGET_NANOS / 10;
+
+        //持续超过预算：冷却期结束时降一级
+        drawFrames(governor, overBudget, 59);
+        assertEquals(WaveQualityGovernor.LEVEL_FULL, governor.getLevel());
+        drawFrames(governor, overBudget, 1);
+        assertEquals(WaveQualityGovernor.LEVEL_COARSE_CURVES, governor.getLevel());
+        assertEquals(4f, ((WaveAnimationDrawable) layers.get(0)).getCurveToleranceScale(), 0f);
+
+        //短暂的余量不会升级，再次超过预算时继续降级
+        drawFrames(governor, headroom, 100);
+        assertEquals(WaveQualityGovernor.LEVEL_COARSE_CURVES, governor.getLevel());
+        drawFrames(governor, overBudget, 60);
+        assertEquals(WaveQualityGovernor.LEVEL_FEWER_LAYERS, governor.getLevel());
+
+        //长时间有余量时升一级
+        drawFrames(governor, headroom, 400);
+        assertEquals(WaveQualityGovernor.LEVEL_COARSE_CURVES, governor.getLevel());
+
+        //升级后很快又超过预算：降级，下一次升级等待两倍的帧数
+        drawFrames(governor, overBudget, 60);
+        assertEquals(WaveQualityGovernor.LEVEL_FEWER_LAYERS, governor.getLevel());
+        drawFrames(governor, headroom, 400);
+        assertEquals(WaveQualityGovernor.LEVEL_FEWER_LAYERS, governor.getLevel());
+        drawFrames(governor, headroom, 300);
+        assertEquals(WaveQualityGovernor.LEVEL_COARSE_CURVES, governor.getLevel());
+
+        //固定等级后不再随耗时变化
+        governor.pinLevel(WaveQualityGovernor.LEVEL_FRAME_ATLAS);
+        assertTrue(((WaveAnimationDrawable) layers.get(2)).isFrameAtlasEnabled());
+        drawFrames(governor, headroom, 1000);
+        assertEquals(WaveQualityGovernor.LEVEL_FRAME_ATLAS, governor.getLevel());
+
+        //关闭后恢复按配置绘制
+        multiWaveView.setAdaptiveQualityEnabled(false);
+        assertEquals(1f, ((WaveAnimationDrawable) layers.get(0)).getCurveToleranceScale(), 0f);
+        assertFalse(((WaveAnimationDrawable) layers.get(2)).isFrameAtlasEnabled());
+        assertEquals(Arrays.asList(1, 2, 1, 2, 1, 4), levels);
+    }
+
+    private static void drawFrames(WaveQualityGovernor governor, long drawTimeNanos, int frames) {
+        for (int i = 0; i < frames; i++) {
+            governor.onFrameDrawn(drawTimeNanos);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.inkhjw.thewaveview.waveview;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.util.AttributeSet;
+import android.view.View;
+
+import com.inkhjw.thewaveview.R;
+import com.inkhjw.thewaveview.waveview.drawable.WaveAnimationDrawable;
+import com.inkhjw.thewaveview.waveview.drawable.WaveDrawableTestHelper;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.GraphicsMode;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author hjw
+ * 遮罩以外的部分不绘制，横向流动时遮罩不随波浪平移
+ */
+
+@RunWith(RobolectricTestRunner.class)
+//原生图形模式依赖API 29的HardwareRenderer
+@Config(sdk = 29)
+@GraphicsMode(GraphicsMode.Mode.NATIVE)
+public class WaveShapeMaskTest {
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 600;
+    //60fps的帧间隔
+    private static final long FRAME_NANOS = 16666667L;
+    private static final int FRAMES = 120;
+
+    private Context context;
+
+    @Before
+    public void setUp() {
+        context = RuntimeEnvironment.getApplication();
+    }
+
+    @Test
+    public void circleMaskHidesCorners() {
+        WaveView waveView = inflateWaveView();
+        waveView.setShapeMask(WaveShapeMask.circle());
+        assertCircleMasked(waveView);
+    }
+
+    @Test
+    public void circleMaskStaysInPlaceWhileFlowing() {
+        WaveView waveView = inflateWaveView();
+        WaveAnimationDrawable drawable = WaveDrawableTestHelper.newDrawable(waveView.getWaveAttribute());
+        drawable.setFlowSpeed(0.1f);
+        waveView.setWaveDrawable(drawable);
+        waveView.setShapeMask(WaveShapeMask.circle());
+        assertCircleMasked(waveView);
+    }
+
+    /**
+     * 逐帧推进时钟，每一帧圆形遮罩(直径为HEIGHT)外的角落都是透明的，圆心处被填充
+     */
+    private static void assertCircleMasked(WaveView waveView) {
+        Bitmap frame = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(frame);
+        WaveFrameClock frameClock = waveView.getFrameClock();
+        frameClock.start();
+        WaveClockService clockService = WaveClockService.getInstance();
+        for (int i = 1; i <= FRAMES; i++) {
+            clockService.doFrame(i * FRAME_NANOS);
+            frame.eraseColor(0);
+            waveView.onDraw(canvas);
+            assertEquals("frame " + i, 0, Color.alpha(frame.getPixel(WIDTH / 2 - HEIGHT / 2 + 5, HEIGHT - 5)));
+            assertEquals("frame " + i, 0, Color.alpha(frame.getPixel(WIDTH - 5, HEIGHT / 2)));
+            assertEquals("frame " + i, 255, Color.alpha(frame.getPixel(WIDTH / 2, HEIGHT / 2)));
+        }
+        frameClock.stop();
+    }
+
+    private WaveView inflateWaveView() {
+        AttributeSet attrs = Robolectric.buildAttributeSet()
+                .addAttribute(R.attr.waveWidth, "270")
+                .addAttribute(R.attr.waveHeight, "10")
+                .addAttribute(R.attr.anim_totalHeight, "30")
+                .addAttribute(R.attr.anim_speed, "0.02")
+                .addAttribute(R.attr.anim_color, "#F6A2A4")
+                .build();
+        WaveView waveView = new WaveView(context, attrs);
+        waveView.measure(View.MeasureSpec.makeMeasureSpec(WIDTH, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(HEIGHT, View.MeasureSpec.EXACTLY));
+        waveView.layout(0, 0, WIDTH, HEIGHT);
+        return waveView;
+    }
+}
@@ -0,0 +1,171 @@
+package com.inkhjw.thewaveview.waveview;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.drawable.Drawable;
+import android.util.AttributeSet;
+import android.view.View;
+
+import com.inkhjw.thewaveview.R;
+import com.inkhjw.thewaveview.waveview.drawable.WaveAnimationDrawable;
+import com.inkhjw.thewaveview.waveview.drawable.WaveDrawableTestHelper;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.GraphicsMode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author hjw
+ * WaveView的帧时钟和重绘：配置相同的View共用时钟，画面没有变化的帧不重绘，修改属性时动画不重新开始。
+ * 通过全局的时钟服务用确定的帧时间驱动
+ */
+
+@RunWith(RobolectricTestRunner.class)
+//原生图形模式依赖API 29的HardwareRenderer
+@Config(sdk = 29)
+@GraphicsMode(GraphicsMode.Mode.NATIVE)
+public class WaveViewTest {
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 600;
+    //60fps的帧间隔
+    private static final long FRAME_NANOS = 16666667L;
+    //列表中同时显示的行数
+    private static final int ROWS = 20;
+
+    private Context context;
+    private Canvas canvas;
+
+    @Before
+    public void setUp() {
+        context = RuntimeEnvironment.getApplication();
+        canvas = new Canvas(Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888));
+    }
+
+    @Test
+    public void identicalViewsShareFrameClock() {
+        WaveView[] rows = new WaveView[ROWS];
+        for (int i = 0; i < ROWS; i++) {
+            rows[i] = inflateWaveView();
+        }
+        //配置相同的行共用Drawable的状态，也就共用同一个帧时钟
+        for (int i = 1; i < ROWS; i++) {
+            assertSame(rows[0].getFrameClock(), rows[i].getFrameClock());
+        }
+        WaveFrameClock frameClock = rows[0].getFrameClock();
+        frameClock.start();
+        //所有行在时钟服务中只有一个订阅，每一帧只派发一次
+        assertEquals(1, WaveClockService.getInstance().getSubscriberCount());
+        frameClock.stop();
+        assertEquals(0, WaveClockService.getInstance().getSubscriberCount());
+    }
+
+    @Test
+    public void unchangedFramesAreSuppressed() {
+        WaveView waveView = inflateWaveView();
+        //没有纵向动画和横向流动，第一帧之后画面不再变化
+        waveView.setWaveAttribute(new WaveView.WaveAttribute.Builder()
+                .setWaveWidth(270)
+                .setWaveHeight(10)
+                .setAnimationTotalHeight(30)
+                .setAnimationSpeed(0)
+                .setWaveColor(0xFFF6A2A4)
+                .build());
+        waveView.setRenderStatsEnabled(true);
+        WaveFrameClock frameClock = waveView.getFrameClock();
+        frameClock.start();
+        WaveClockService clockService = WaveClockService.getInstance();
+        for (int i = 1; i <= 10; i++) {
+            clockService.doFrame(i * FRAME_NANOS);
+            if (i == 1) {
+                waveView.onDraw(canvas);
+            }
+        }
+        frameClock.stop();
+
+        WaveRenderStats stats = waveView.getRenderStats();
+        assertEquals(10, stats.getClockCallbacks());
+        assertEquals(1, stats.getFrameCount());
+        assertEquals(9, stats.getFramesSuppressed());
+    }
+
+    @Test
+    public void hotReconfigurationKeepsAnimationRunning() {
+        WaveView waveView = inflateWaveView();
+        WaveAnimationDrawable drawable = WaveDrawableTestHelper.newDrawable(waveView.getWaveAttribute());
+        waveView.setWaveDrawable(drawable);
+        WaveFrameClock frameClock = waveView.getFrameClock();
+        frameClock.start();
+        WaveClockService clockService = WaveClockService.getInstance();
+        clockService.doFrame(FRAME_NANOS);
+        clockService.doFrame(2 * FRAME_NANOS);
+        long playTimeNanos = frameClock.getPlayTimeNanos();
+        Drawable.ConstantState state = drawable.getConstantState();
+
+        //只改颜色：不复制状态(几何缓存)，时钟不变
+        WaveView.WaveAttribute attribute = waveView.getWaveAttribute().buildUpon()
+                .setWaveColor(0xFF3F51B5)
+                .build();
+        waveView.setWaveAttribute(attribute);
+        assertSame(state, drawable.getConstantState());
+        assertEquals(0xFF3F51B5, drawable.getPaintColor());
+        assertSame(frameClock, waveView.getFrameClock());
+
+        //改变高度：沿用原来的时钟，动画不重新开始
+        waveView.setWaveAttribute(attribute.buildUpon()
+                .setWaveHeight(20)
+                .setAnimationTotalHeight(60)
+                .build());
+        assertSame(frameClock, waveView.getFrameClock());
+        assertEquals(playTimeNanos, frameClock.getPlayTimeNanos());
+        for (int i = 3; i < 30; i++) {
+            clockService.doFrame(i * FRAME_NANOS);
+            waveView.onDraw(canvas);
+        }
+        assertEquals(20, waveView.getWaveAttribute().waveHeight);
+
+        //改变帧率：换成新的时钟，从原来的playTime接着播放
+        playTimeNanos = frameClock.getPlayTimeNanos();
+        waveView.setTargetFps(30);
+        assertEquals(30, waveView.getTargetFps());
+        assertEquals(playTimeNanos, waveView.getFrameClock().getPlayTimeNanos());
+        frameClock.stop();
+    }
+
+    @Test
+    public void touchRipplesApplyToWaveDrawable() {
+        WaveView waveView = inflateWaveView();
+        WaveAnimationDrawable drawable = WaveDrawableTestHelper.newDrawable(waveView.getWaveAttribute());
+        waveView.setWaveDrawable(drawable);
+        waveView.setTouchRipplesEnabled(true);
+        assertTrue(drawable.isTouchRipplesEnabled());
+        //换成新的Drawable时沿用View的设置
+        WaveAnimationDrawable replacement = WaveDrawableTestHelper.newDrawable(waveView.getWaveAttribute());
+        waveView.setWaveDrawable(replacement);
+        assertTrue(replacement.isTouchRipplesEnabled());
+    }
+
+    private WaveView inflateWaveView() {
+        AttributeSet attrs = Robolectric.buildAttributeSet()
+                .addAttribute(R.attr.waveWidth, "270")
+                .addAttribute(R.attr.waveHeight, "10")
+                .addAttribute(R.attr.anim_totalHeight, "30")
+                .addAttribute(R.attr.anim_speed, "0.02")
+                .addAttribute(R.attr.anim_color, "#F6A2A4")
+                .build();
+        WaveView waveView = new WaveView(context, attrs);
+        waveView.measure(View.MeasureSpec.makeMeasureSpec(WIDTH, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(HEIGHT, View.MeasureSpec.EXACTLY));
+        waveView.layout(0, 0, WIDTH, HEIGHT);
+        return waveView;
+    }
+}
@@ -0,0 +1,123 @@
+package com.inkhjw.thewaveview.waveview.drawable;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+
+import com.inkhjw.thewaveview.waveview.WaveView;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.GraphicsMode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author hjw
+ * WaveAnimationDrawable各种绘制方式(图集、三角形带、涟漪)的结果，逐帧设置动画时间后直接绘制；共享状态时颜色属于各自的实例
+ */
+
+@RunWith(RobolectricTestRunner.class)
+//原生图形模式依赖API 29的HardwareRenderer
+@Config(sdk = 29)
+@GraphicsMode(GraphicsMode.Mode.NATIVE)
+public class WaveAnimationDrawableTest {
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 600;
+    //60fps的帧间隔
+    private static final long FRAME_NANOS = 16666667L;
+    private static final int FRAMES = 120;
+
+    private Canvas canvas;
+
+    @Before
+    public void setUp() {
+        canvas = new Canvas(Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888));
+    }
+
+    @Test
+    public void frameAtlasIsUsedOnceBuilt() throws InterruptedException {
+        WaveAnimationDrawable drawable = newDrawable();
+        drawable.setFrameAtlasEnabled(true);
+        //第一次绘制开始在后台线程中渲染图集，完成前照常绘制矢量的波浪
+        drawable.draw(canvas);
+        WaveFrameAtlasCache.getInstance().awaitBuilding();
+        //之后的每一帧只画图集中的一帧：一张位图和下面的静态部分
+        for (int i = 1; i <= FRAMES; i++) {
+            drawable.setPlayTime(i * FRAME_NANOS);
+            drawable.draw(canvas);
+            assertTrue("frame " + i, drawable.isFrameAtlasInUse());
+            assertEquals(4, drawable.getLastVertexCount());
+        }
+    }
+
+    @Test
+    public void verticesOutlineUsesTwoVerticesPerColumn() {
+        WaveAnimationDrawable drawable = newDrawable();
+        drawable.setOutlineMode(WaveAnimationDrawable.OUTLINE_VERTICES);
+        for (int i = 1; i <= FRAMES; i++) {
+            drawable.setPlayTime(i * FRAME_NANOS);
+            drawable.draw(canvas);
+            //软件绘制的画布支持drawVertices，每一列两个顶点
+            assertEquals(2 * (WIDTH + 1), drawable.getLastVertexCount());
+        }
+    }
+
+    @Test
+    public void ripplesDrawPerPixelPolyline() {
+        WaveAnimationDrawable drawable = newDrawable();
+        drawable.setOutlineMode(WaveAnimationDrawable.OUTLINE_BEZIER);
+        drawable.setTouchRipplesEnabled(true);
+        for (int i = 1; i <= FRAMES; i++) {
+            //每隔一段时间在新的位置触摸一次，涟漪一直没有静止
+            if (i % 30 == 1) {
+                drawable.disturb((i * 37) % WIDTH, 0);
+            }
+            drawable.setPlayTime(i * FRAME_NANOS);
+            drawable.draw(canvas);
+            //涟漪中不使用贝塞尔拟合，每一列一个顶点，加上起点和底部的两个角
+            assertEquals(WIDTH + 3, drawable.getLastVertexCount());
+        }
+    }
+
+    @Test
+    public void sharedDrawablesKeepTheirOwnColor() {
+        WaveView.WaveAttribute attribute = newAttribute();
+        WaveAnimationDrawable pink = WaveAnimationDrawable.share(WaveDrawableTestHelper.newDrawable(attribute));
+        WaveAnimationDrawable blue = WaveAnimationDrawable.share(WaveDrawableTestHelper.newDrawable(
+                attribute.buildUpon().setWaveColor(0xFF3F51B5).build()));
+        //只有颜色不同：共用状态和帧时钟，颜色属于各自的实例
+        assertSame(pink.getConstantState(), blue.getConstantState());
+        assertSame(pink.getFrameClock(), blue.getFrameClock());
+        assertEquals(0xFFF6A2A4, pink.getPaintColor());
+        assertEquals(0xFFF6A2A4, pink.getWaveAttribute().waveColor);
+        assertEquals(0xFF3F51B5, blue.getPaintColor());
+        assertEquals(0xFF3F51B5, blue.getWaveAttribute().waveColor);
+
+        //几何不同时不共用
+        WaveAnimationDrawable taller = WaveAnimationDrawable.share(WaveDrawableTestHelper.newDrawable(
+                attribute.buildUpon().setWaveHeight(20).build()));
+        assertNotSame(pink.getConstantState(), taller.getConstantState());
+    }
+
+    private static WaveAnimationDrawable newDrawable() {
+        WaveAnimationDrawable drawable = WaveDrawableTestHelper.newDrawable(newAttribute());
+        drawable.setBounds(0, 0, WIDTH, HEIGHT);
+        return drawable;
+    }
+
+    private static WaveView.WaveAttribute newAttribute() {
+        return new WaveView.WaveAttribute.Builder()
+                .setWaveWidth(270)
+                .setWaveHeight(10)
+                .setAnimationTotalHeight(30)
+                .setAnimationSpeed(0.02f)
+                .setWaveColor(0xFFF6A2A4)
+                .build();
+    }
+}
@@ -0,0 +1,41 @@
+package com.inkhjw.thewaveview.waveview.drawable;
+
+import android.graphics.Paint;
+
+import com.inkhjw.thewaveview.waveview.WaveView;
+
+/**
+ * @author hjw
+ * 测试中创建WaveAnimationDrawable，并等待后台线程(几何流水线、帧图集)完成，不依赖sleep
+ */
+
+public final class WaveDrawableTestHelper {
+
+    private WaveDrawableTestHelper() {
+    }
+
+    /**
+     * 与WaveView创建的Drawable相同的画笔
+     */
+    public static WaveAnimationDrawable newDrawable(WaveView.WaveAttribute waveAttribute) {
+        Paint paint = new Paint();
+        paint.setColor(waveAttribute.waveColor);
+        paint.setAntiAlias(true);
+        paint.setStyle(Paint.Style.FILL);
+        return new WaveAnimationDrawable(waveAttribute, paint);
+    }
+
+    /**
+     * 等待工作线程算完drawable已经请求的下一帧
+     */
+    public static void awaitPipelinedGeometry(WaveAnimationDrawable drawable) {
+        drawable.awaitPipelinedGeometry();
+    }
+
+    /**
+     * 等待正在渲染的帧图集全部完成
+     */
+    public static void awaitFrameAtlases() throws InterruptedException {
+        WaveFrameAtlasCache.getInstance().awaitBuilding();
+    }
+}
@@ -0,0 +1,77 @@
+package com.inkhjw.thewaveview.waveview.drawable;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+
+import com.inkhjw.thewaveview.waveview.WaveView;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.GraphicsMode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author hjw
+ * 流水线计算的帧与同步计算的帧逐像素相同，固定帧间隔下每一帧都使用工作线程的结果
+ */
+
+@RunWith(RobolectricTestRunner.class)
+//原生图形模式依赖API 29的HardwareRenderer
+@Config(sdk = 29)
+@GraphicsMode(GraphicsMode.Mode.NATIVE)
+public class WaveGeometryPipelineTest {
+    private static final int WIDTH = 1080;
+    private static final int HEIGHT = 600;
+    //60fps的帧间隔
+    private static final long FRAME_NANOS = 16666667L;
+
+    @Test
+    public void pipelinedFramesMatchSynchronousFrames() {
+        assertFramesMatch(WaveAnimationDrawable.OUTLINE_POLYLINE);
+    }
+
+    @Test
+    public void pipelinedBezierFramesMatchSynchronousFrames() {
+        assertFramesMatch(WaveAnimationDrawable.OUTLINE_BEZIER);
+    }
+
+    private static void assertFramesMatch(int outlineMode) {
+        WaveView.WaveAttribute attribute = new WaveView.WaveAttribute.Builder()
+                .setWaveWidth(270)
+                .setWaveHeight(10)
+                .setAnimationTotalHeight(30)
+                .setAnimationSpeed(0.02f)
+                .setWaveColor(0xFFF6A2A4)
+                .build();
+        WaveAnimationDrawable pipelined = WaveDrawableTestHelper.newDrawable(attribute);
+        WaveAnimationDrawable synchronous = WaveDrawableTestHelper.newDrawable(attribute);
+        pipelined.setOutlineMode(outlineMode);
+        synchronous.setOutlineMode(outlineMode);
+        pipelined.setPipelinedGeometryEnabled(true);
+        pipelined.setBounds(0, 0, WIDTH, HEIGHT);
+        synchronous.setBounds(0, 0, WIDTH, HEIGHT);
+        Bitmap pipelinedFrame = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
+        Bitmap synchronousFrame = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
+        Canvas pipelinedCanvas = new Canvas(pipelinedFrame);
+        Canvas synchronousCanvas = new Canvas(synchronousFrame);
+        int frames = 120;
+        for (int i = 0; i < frames; i++) {
+            pipelined.setPlayTime(i * FRAME_NANOS);
+            synchronous.setPlayTime(i * FRAME_NANOS);
+            pipelinedFrame.eraseColor(0);
+            synchronousFrame.eraseColor(0);
+            pipelined.draw(pipelinedCanvas);
+            synchronous.draw(synchronousCanvas);
+            assertTrue("frame " + i + " differs", pipelinedFrame.sameAs(synchronousFrame));
+            //等待工作线程算完下一帧
+            pipelined.awaitPipelinedGeometry();
+        }
+        //固定的帧间隔下预测总是准确的，除第一帧外都直接使用工作线程的结果
+        assertEquals(frames - 1, pipelined.getPipelineHitCount());
+        assertEquals(0, pipelined.getPipelineMissCount());
+    }
+}
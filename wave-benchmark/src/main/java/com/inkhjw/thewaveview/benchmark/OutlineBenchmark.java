@@ -0,0 +1,140 @@
+package com.inkhjw.thewaveview.benchmark;
+
+import com.inkhjw.thewaveview.core.WaveGeometry;
+import com.inkhjw.thewaveview.core.WaveOutline;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author hjw
+ * 波浪轮廓生成的基准测试：
+ * frame为每一帧的开销(使用缓存的采样值/节点，只加上纵向偏移；vertices为drawVertices的三角形带顶点)，
+ * rebuild为几何参数变化时每一层各自重新采样的开销，
+ * rebuildFused为多层融合计算(每一列只计算一次三角函数)的开销
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OutlineBenchmark {
+    static final int WAVE_WIDTH = 270;
+    static final int WAVE_HEIGHT = 10;
+    static final int ANIM_TOTAL_HEIGHT = 30;
+    static final float ANIM_SPEED = 0.02f;
+    static final double TOLERANCE = 0.5;
+    //60fps的帧间隔
+    static final long FRAME_NANOS = 16666667L;
+
+    @Param({"360", "1080", "1440", "2560"})
+    public int width;
+
+    @Param({"1", "3", "8"})
+    public int layers;
+
+    @Param({"polyline", "bezier", "vertices"})
+    public String mode;
+
+    private float[][] samples;
+    private float[][] knots;
+    private int[] knotCounts;
+    private WaveOutline[] outlines;
+    private float[][] stripVertices;
+    private double[] phases;
+    private double[] rotations;
+    private float[] fusedBuffer;
+    private long playTimeNanos;
+
+    @Setup
+    public void setUp() {
+        samples = new float[layers][width + 1];
+        knots = new float[layers][];
+        knotCounts = new int[layers];
+        outlines = new WaveOutline[layers];
+        stripVertices = new float[layers][(width + 1) * 4];
+        for (int i = 0; i < layers; i++) {
+            rebuildLayer(i);
+            outlines[i] = new WaveOutline();
+        }
+        phases = new double[layers];
+        rotations = new double[2 * layers];
+        for (int i = 0; i < layers; i++) {
+            phases[i] = -(i + 1) * (Math.PI / 4);
+        }
+        int knotCount = WaveGeometry.curveKnotCount(width, WAVE_WIDTH, WAVE_HEIGHT, TOLERANCE);
+        fusedBuffer = new float[layers * Math.max(width + 1, knotCount * WaveGeometry.KNOT_STRIDE)];
+    }
+
+    @Benchmark
+    public void frame(Blackhole blackhole) {
+        playTimeNanos += FRAME_NANOS;
+        boolean bezier = "bezier".equals(mode);
+        boolean vertices = "vertices".equals(mode);
+        for (int i = 0; i < layers; i++) {
+            float offsetY = ANIM_TOTAL_HEIGHT + WAVE_HEIGHT
+                    - WaveGeometry.triangleOffset(playTimeNanos - i * FRAME_NANOS * 10, ANIM_TOTAL_HEIGHT, ANIM_SPEED);
+            if (vertices) {
+                WaveGeometry.triangleStrip(samples[i], width + 1, 1, offsetY, offsetY + WAVE_HEIGHT, stripVertices[i]);
+                blackhole.consume(stripVertices[i]);
+                continue;
+            }
+            if (bezier) {
+                WaveGeometry.bezierOutline(knots[i], knotCounts[i], offsetY, outlines[i]);
+            } else {
+                WaveGeometry.polylineOutline(samples[i], width + 1, offsetY, outlines[i]);
+            }
+            blackhole.consume(outlines[i].coords);
+        }
+    }
+
+    @Benchmark
+    public void rebuild(Blackhole blackhole) {
+        for (int i = 0; i < layers; i++) {
+            rebuildLayer(i);
+            blackhole.consume(samples[i]);
+            blackhole.consume(knots[i]);
+        }
+    }
+
+    @Benchmark
+    public void rebuildFused(Blackhole blackhole) {
+        if ("bezier".equals(mode)) {
+            int segments = WaveGeometry.segmentsPerWave(WAVE_HEIGHT, TOLERANCE);
+            int stride = WaveGeometry.curveKnotCount(width, WAVE_WIDTH, segments) * WaveGeometry.KNOT_STRIDE;
+            WaveGeometry.curveKnotsLayers(fusedBuffer, stride, width, WAVE_WIDTH, segments, phases, layers,
+                    rotations);
+        } else {
+            WaveGeometry.sampleSineLayers(fusedBuffer, width + 1, width + 1, WaveGeometry.omega(WAVE_WIDTH), phases,
+                    layers, rotations);
+        }
+        blackhole.consume(fusedBuffer);
+    }
+
+    private void rebuildLayer(int layer) {
+        double phase = -(layer + 1) * (Math.PI / 4);
+        if ("bezier".equals(mode)) {
+            int knotCount = WaveGeometry.curveKnotCount(width, WAVE_WIDTH, WAVE_HEIGHT, TOLERANCE);
+            if (knots[layer] == null || knots[layer].length < knotCount * WaveGeometry.KNOT_STRIDE) {
+                knots[layer] = new float[knotCount * WaveGeometry.KNOT_STRIDE];
+            }
+            knotCounts[layer] = WaveGeometry.curveKnots(knots[layer], width, WAVE_WIDTH, WAVE_HEIGHT, phase, TOLERANCE);
+        } else {
+            WaveGeometry.sampleSine(samples[layer], width + 1, WAVE_HEIGHT, WaveGeometry.omega(WAVE_WIDTH), phase);
+        }
+    }
+}
@@ -0,0 +1,360 @@
+package com.inkhjw.thewaveview.core;
+
+/**
+ * @author hjw
+ * 波浪的几何计算，与Android无关，可以在普通JVM上测试和做基准测试。
+ * <p>
+ * 正玄函数：y=Asin(ωx+φ)+h
+ * A:决定峰值(即纵向拉伸压缩的倍数)
+ * ω:决定周期(最小正周期T=2π/|ω|)
+ * φ(初相位):决定波形与X轴位置关系或横向移动距离(左加右减)
+ * h:表示波形在Y轴的位置关系或纵向移动距离(上加下减)
+ */
+
+public final class WaveGeometry {
+    //每个节点在knots中占用的值：x, Asin(ωx+φ), 斜率
+    public static final int KNOT_STRIDE = 3;
+
+    private WaveGeometry() {
+    }
+
+    /**
+     * 由波浪的宽度(一个周期的像素数)得出ω
+     */
+    public static double omega(int waveWidth) {
+        return 2 * Math.PI / waveWidth;
+    }
+
+    /**
+     * 逐像素采样：out[x] = Asin(ωx+φ)，x取[0, count)
+     *
+     * @param out       输出，长度至少为count
+     * @param count     采样个数
+     * @param amplitude A
+     * @param omega     ω
+     * @param phase     φ
+     */
+    public static void sampleSine(float[] out, int count, double amplitude, double omega, double phase) {
+        for (int x = 0; x < count; x++) {
+            out[x] = (float) (amplitude * Math.sin(omega * x + phase));
+        }
+    }
+
+    /**
+     * 多层融合采样：各层只有初相位不同时，每一列只计算一次sin(ωx)和cos(ωx)，
+     * 由和角公式 sin(ωx+φ) = sin(ωx)cosφ + cos(ωx)sinφ 得出每一层的值，三角函数的开销与层数无关。
+     * 结果按层连续存放(结构数组)：第l层的out[l * stride + x] = sin(ωx+φl)，x取[0, count)
+     *
+     * @param out        输出，长度至少为layerCount * stride
+     * @param stride     每一层占用的长度，至少为count
+     * @param count      每一层的采样个数
+     * @param omega      ω
+     * @param phases     每一层的φ
+     * @param layerCount 层数
+     * @param scratch    临时空间，长度至少为2 * layerCount，由调用者复用，计算时不创建对象
+     */
+    public static void sampleSineLayers(float[] out, int stride, int count, double omega, double[] phases,
+                                        int layerCount, double[] scratch) {
+        phaseRotations(phases, layerCount, scratch);
+        for (int x = 0; x < count; x++) {
+            double sin = Math.sin(omega * x);
+            double cos = Math.cos(omega * x);
+            for (int l = 0, o = x; l < layerCount; l++, o += stride) {
+                out[o] = (float) (sin * scratch[2 * l] + cos * scratch[2 * l + 1]);
+            }
+        }
+    }
+
+    /**
+     * 每一层的cosφ和sinφ依次写入out
+     */
+    private static void phaseRotations(double[] phases, int layerCount, double[] out) {
+        if (out.length < 2 * layerCount) {
+            throw new IllegalArgumentException("scratch must hold 2 * layerCount values");
+        }
+        for (int l = 0; l < layerCount; l++) {
+            out[2 * l] = Math.cos(phases[l]);
+            out[2 * l + 1] = Math.sin(phases[l]);
+        }
+    }
+
+    /**
+     * 多层融合计算振幅为1的贝塞尔拟合节点，各层的段数相同，节点的x相同，
+     * 每个节点只计算一次sin(ωx)和cos(ωx)，斜率由 cos(ωx+φ) = cos(ωx)cosφ - sin(ωx)sinφ 得出。
+     * 第l层的节点从out[l * stride]开始，格式与{@link #curveKnots(float[], int, int, int, double, double)}相同
+     *
+     * @param out             输出，长度至少为layerCount * stride
+     * @param stride          每一层占用的长度，至少为curveKnotCount(width, waveWidth, segmentsPerWave) * KNOT_STRIDE
+     * @param segmentsPerWave 每个波长的段数
+     * @param phases          每一层的φ
+     * @param layerCount      层数
+     * @param scratch         临时空间，长度至少为2 * layerCount，由调用者复用，计算时不创建对象
+     * @return 每一层的节点个数
+     */
+    public static int curveKnotsLayers(float[] out, int stride, int width, int waveWidth, int segmentsPerWave,
+                                       double[] phases, int layerCount, double[] scratch) {
+        double omega = omega(waveWidth);
+        double step = (double) waveWidth / segmentsPerWave;
+        int knotCount = curveKnotCount(width, waveWidth, segmentsPerWave);
+        phaseRotations(phases, layerCount, scratch);
+        for (int i = 0; i < knotCount; i++) {
+            double x = Math.min(i * step, width);
+            double sin = Math.sin(omega * x);
+            double cos = Math.cos(omega * x);
+            for (int l = 0, o = i * KNOT_STRIDE; l < layerCount; l++, o += stride) {
+                double cosPhase = scratch[2 * l];
+                double sinPhase = scratch[2 * l + 1];
+                out[o] = (float) x;
+                out[o + 1] = (float) (sin * cosPhase + cos * sinPhase);
+                out[o + 2] = (float) (omega * (cos * cosPhase - sin * sinPhase));
+            }
+        }
+        return knotCount;
+    }
+
+    /**
+     * 三次Hermite插值的误差上限为 A(ωh)^4/384，h为每段的宽度。
+     * 据此得出误差不超过tolerance时每个波长最少需要的段数，至少为2
+     *
+     * @param amplitude A
+     * @param tolerance 允许的最大误差(px)，必须大于0
+     * @return 每个波长的段数
+     */
+    public static int segmentsPerWave(double amplitude, double tolerance) {
+        if (!(tolerance > 0)) {
+            throw new IllegalArgumentException("tolerance must be > 0");
+        }
+        double maxAngle = amplitude > 0 ? Math.pow(384 * tolerance / amplitude, 0.25) : Math.PI;
+        return (int) Math.ceil(2 * Math.PI / Math.min(maxAngle, Math.PI));
+    }
+
+    /**
+     * 需要的节点个数
+     */
+    public static int curveKnotCount(int width, int waveWidth, double amplitude, double tolerance) {
+        return curveKnotCount(width, waveWidth, segmentsPerWave(amplitude, tolerance));
+    }
+
+    /**
+     * 每个波长分为segmentsPerWave段时需要的节点个数
+     */
+    public static int curveKnotCount(int width, int waveWidth, int segmentsPerWave) {
+        double step = (double) waveWidth / segmentsPerWave;
+        return Math.max(1, (int) Math.ceil(width / step)) + 1;
+    }
+
+    /**
+     * 计算贝塞尔拟合的节点，每个节点依次为x, Asin(ωx+φ), 斜率Aωcos(ωx+φ)。
+     * 节点个数只与波长的个数有关，与像素宽度无关
+     *
+     * @param out       输出，长度至少为curveKnotCount(...) * KNOT_STRIDE
+     * @param width     绘制宽度
+     * @param waveWidth 波浪宽度
+     * @param amplitude A
+     * @param phase     φ
+     * @param tolerance 允许的最大误差(px)
+     * @return 节点个数
+     */
+    public static int curveKnots(float[] out, int width, int waveWidth, double amplitude, double phase,
+                                 double tolerance) {
+        return curveKnots(out, width, waveWidth, segmentsPerWave(amplitude, tolerance), amplitude, phase);
+    }
+
+    /**
+     * 按指定的段数计算节点。使用amplitude为1的节点时，绘制时再乘以振幅(见带amplitude参数的轮廓生成)，
+     * 振幅变化时只要段数不变就不需要重新计算
+     *
+     * @param out             输出，长度至少为curveKnotCount(width, waveWidth, segmentsPerWave) * KNOT_STRIDE
+     * @param segmentsPerWave 每个波长的段数
+     * @return 节点个数
+     */
+    public static int curveKnots(float[] out, int width, int waveWidth, int segmentsPerWave, double amplitude,
+                                 double phase) {
+        double omega = omega(waveWidth);
+        double step = (double) waveWidth / segmentsPerWave;
+        int knotCount = Math.max(1, (int) Math.ceil(width / step)) + 1;
+        for (int i = 0; i < knotCount; i++) {
+            double x = Math.min(i * step, width);
+            out[i * KNOT_STRIDE] = (float) x;
+            out[i * KNOT_STRIDE + 1] = (float) (amplitude * Math.sin(omega * x + phase));
+            out[i * KNOT_STRIDE + 2] = (float) (amplitude * omega * Math.cos(omega * x + phase));
+        }
+        return knotCount;
+    }
+
+    /**
+     * 由采样值生成折线轮廓，每个点的y为采样值加上纵向偏移
+     *
+     * @param samples 采样值，长度至少为count
+     * @param count   点的个数
+     * @param offsetY 纵向偏移
+     * @param out     输出的轮廓
+     */
+    public static void polylineOutline(float[] samples, int count, float offsetY, WaveOutline out) {
+        polylineOutline(samples, count, 1, offsetY, out);
+    }
+
+    /**
+     * 由采样值生成折线轮廓，每个点的y为采样值乘以振幅再加上纵向偏移
+     *
+     * @param samples   采样值，长度至少为count
+     * @param count     点的个数
+     * @param amplitude 振幅的缩放
+     * @param offsetY   纵向偏移
+     * @param out       输出的轮廓
+     */
+    public static void polylineOutline(float[] samples, int count, float amplitude, float offsetY,
+                                       WaveOutline out) {
+        out.mode = WaveOutline.MODE_POLYLINE;
+        out.ensureCapacity(count * 2);
+        float[] coords = out.coords;
+        for (int x = 0; x < count; x++) {
+            coords[x * 2] = x;
+            coords[x * 2 + 1] = samples[x] * amplitude + offsetY;
+        }
+        out.pointCount = count;
+        out.segmentCount = 0;
+    }
+
+    /**
+     * 由采样值生成三角形带的顶点：每一列依次为曲线上的点(x, 采样值*振幅+纵向偏移)和底边上的点(x, bottomY)，
+     * 用于直接填充曲线与底边之间的区域(Canvas.drawVertices的TRIANGLE_STRIP)，绘制时不需要细分Path
+     *
+     * @param samples   采样值，长度至少为count
+     * @param count     列数
+     * @param amplitude 振幅的缩放
+     * @param offsetY   纵向偏移
+     * @param bottomY   底边的y，不小于曲线的最低点
+     * @param out       输出，长度至少为count * 4
+     * @return 使用的float个数(顶点数 * 2)
+     */
+    public static int triangleStrip(float[] samples, int count, float amplitude, float offsetY, float bottomY,
+                                    float[] out) {
+        for (int x = 0, v = 0; x < count; x++, v += 4) {
+            out[v] = x;
+            out[v + 1] = samples[x] * amplitude + offsetY;
+            out[v + 2] = x;
+            out[v + 3] = bottomY;
+        }
+        return count * 4;
+    }
+
+    /**
+     * 由节点生成三次贝塞尔曲线轮廓，每段的控制点由两端的斜率得出(三次Hermite插值)
+     *
+     * @param knots     节点
+     * @param knotCount 节点个数
+     * @param offsetY   纵向偏移
+     * @param out       输出的轮廓
+     */
+    public static void bezierOutline(float[] knots, int knotCount, float offsetY, WaveOutline out) {
+        bezierOutline(knots, knotCount, 1, offsetY, out);
+    }
+
+    /**
+     * 由节点生成三次贝塞尔曲线轮廓，节点的y和斜率乘以振幅
+     *
+     * @param knots     节点
+     * @param knotCount 节点个数
+     * @param amplitude 振幅的缩放
+     * @param offsetY   纵向偏移
+     * @param out       输出的轮廓
+     */
+    public static void bezierOutline(float[] knots, int knotCount, float amplitude, float offsetY,
+                                     WaveOutline out) {
+        out.mode = WaveOutline.MODE_BEZIER;
+        int segmentCount = Math.max(0, knotCount - 1);
+        out.ensureCapacity(2 + segmentCount * 6);
+        float[] coords = out.coords;
+        coords[0] = knots[0];
+        coords[1] = knots[1] * amplitude + offsetY;
+        int c = 2;
+        for (int i = 1; i < knotCount; i++) {
+            int p = (i - 1) * KNOT_STRIDE;
+            int q = i * KNOT_STRIDE;
+            float x0 = knots[p];
+            float y0 = knots[p + 1] * amplitude + offsetY;
+            float x1 = knots[q];
+            float y1 = knots[q + 1] * amplitude + offsetY;
+            float third = (x1 - x0) / 3;
+            coords[c++] = x0 + third;
+            coords[c++] = y0 + third * knots[p + 2] * amplitude;
+            coords[c++] = x1 - third;
+            coords[c++] = y1 - third * knots[q + 2] * amplitude;
+            coords[c++] = x1;
+            coords[c++] = y1;
+        }
+        out.segmentCount = segmentCount;
+        out.pointCount = 0;
+    }
+
+    /**
+     * 纵向动画：0 → totalHeight → 0的往返运动
+     *
+     * @param playTimeNanos 动画经过的时间(ns)，可以为负数
+     * @param totalHeight   动画总高度(px)
+     * @param speed         速度(px/ms)
+     * @return 当前的高度
+     */
+    public static float triangleOffset(long playTimeNanos, int totalHeight, float speed) {
+        double halfPeriod = halfPeriodNanos(totalHeight, speed);
+        return (float) (triangleFraction(trianglePhase(playTimeNanos, halfPeriod)) * totalHeight);
+    }
+
+    /**
+     * 往返运动单程的时长(ns)
+     *
+     * @return 时长，不运动时为0
+     */
+    public static double halfPeriodNanos(int totalHeight, float speed) {
+        if (totalHeight <= 0 || speed <= 0) {
+            return 0;
+        }
+        return totalHeight / speed * 1e6;
+    }
+
+    /**
+     * 往返运动的相位，范围[0, 2)：[0, 1]为去程，(1, 2)为回程。
+     * 改变速度或总高度时保持相位不变，运动就不会跳变
+     *
+     * @param playTimeNanos   动画经过的时间(ns)，可以为负数
+     * @param halfPeriodNanos 单程的时长(ns)
+     * @return 相位，halfPeriodNanos为0时为0
+     */
+    public static double trianglePhase(long playTimeNanos, double halfPeriodNanos) {
+        if (halfPeriodNanos <= 0) {
+            return 0;
+        }
+        double t = playTimeNanos % (2 * halfPeriodNanos);
+        if (t < 0) {
+            t += 2 * halfPeriodNanos;
+        }
+        return t / halfPeriodNanos;
+    }
+
+    /**
+     * 由相位得出当前高度占总高度的比例
+     *
+     * @param phase 相位，范围[0, 2)
+     * @return 比例，范围[0, 1]
+     */
+    public static double triangleFraction(double phase) {
+        return phase <= 1 ? phase : 2 - phase;
+    }
+
+    /**
+     * 横向流动的偏移
+     *
+     * @param playTimeNanos 动画经过的时间(ns)
+     * @param flowSpeed     速度(px/ms)，正数向右，负数向左
+     * @param waveWidth     波浪宽度
+     * @return 偏移，范围[0, waveWidth)
+     */
+    public static float flowOffset(long playTimeNanos, float flowSpeed, int waveWidth) {
+        if (waveWidth <= 0) {
+            return 0;
+        }
+        double offset = (flowSpeed * (playTimeNanos / 1e6)) % waveWidth;
+        return (float) (offset < 0 ? offset + waveWidth : offset);
+    }
+}
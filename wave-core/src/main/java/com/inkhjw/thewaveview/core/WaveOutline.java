@@ -0,0 +1,45 @@
+package com.inkhjw.thewaveview.core;
+
+/**
+ * @author hjw
+ * 波浪轮廓的坐标缓存，由{@link WaveGeometry}填充，绘制时转换成Path。
+ * 缓存可以重复使用，只在容量不足时扩容。
+ * <p>
+ * 折线：coords依次为每个点的x, y，共pointCount个点；
+ * 贝塞尔：coords[0..1]为起点，之后每段依次为两个控制点和终点(6个值)，共segmentCount段
+ */
+
+public final class WaveOutline {
+    public static final int MODE_POLYLINE = 0;
+    public static final int MODE_BEZIER = 1;
+
+    public int mode = MODE_POLYLINE;
+    public float[] coords = new float[0];
+    public int pointCount;
+    public int segmentCount;
+
+    /**
+     * 确保coords至少能容纳size个值
+     *
+     * @param size 需要的容量
+     */
+    public void ensureCapacity(int size) {
+        if (coords.length < size) {
+            coords = new float[size];
+        }
+    }
+
+    /**
+     * 轮廓中有效坐标值的个数
+     */
+    public int size() {
+        return mode == MODE_BEZIER ? 2 + segmentCount * 6 : pointCount * 2;
+    }
+
+    /**
+     * 轮廓的顶点数(贝塞尔曲线每段计3个点)
+     */
+    public int vertexCount() {
+        return mode == MODE_BEZIER ? 1 + segmentCount * 3 : pointCount;
+    }
+}
@@ -0,0 +1,273 @@
+package com.inkhjw.thewaveview.core;
+
+/**
+ * @author hjw
+ * 沿波浪x轴的高度场，用带阻尼的一维波动方程模拟触摸产生的涟漪，叠加在正玄曲线上。
+ * <p>
+ * 每隔resolution像素一个格点，固定步长推进(显式差分)：
+ * next = (2*cur - prev + r²(cur[i-1] - 2cur[i] + cur[i+1])) * damping，r = c*dt/dx。
+ * 格点较密或速度较快使r超过稳定的上限时，把一步拆成几个子步，传播速度(px/ms)与格点间距无关。
+ * 两个数组交替使用，推进时不创建任何对象，每一步的开销为O(width / resolution)。
+ * 高度场静止后清零，不再推进，也不再有任何开销
+ */
+
+public final class WaveRippleField {
+    //固定步长，与帧率无关
+    public static final long STEP_NANOS = 1000000000L / 120;
+    public static final float DEFAULT_RESOLUTION = 4;
+    //传播速度(px/ms)
+    public static final float DEFAULT_WAVE_SPEED = 0.3f;
+    //每一步保留的能量
+    public static final float DEFAULT_DAMPING = 0.985f;
+    //一帧最多推进的步数，落后更多时丢弃，避免卡顿后集中计算
+    private static final int MAX_STEPS_PER_FRAME = 4;
+    //差分格式稳定的上限是1，留出余量
+    private static final float MAX_COURANT = 0.7f;
+    //所有格点的高度和速度都小于它时视为静止(px)
+    private static final float REST_EPSILON = 0.02f;
+
+    private float resolution = DEFAULT_RESOLUTION;
+    private float waveSpeed = DEFAULT_WAVE_SPEED;
+    private float damping = DEFAULT_DAMPING;
+    private float courantSquared;
+    //每一个固定步长拆分的子步数，以及每个子步保留的能量
+    private int substeps = 1;
+    private float substepDamping = DEFAULT_DAMPING;
+
+    private float[] current = new float[0];
+    private float[] previous = new float[0];
+    private int cellCount;
+    private int width;
+
+    private boolean atRest = true;
+    //上一步的时间，-1表示下一次推进时从当时开始
+    private long lastStepNanos = -1;
+    //当前最大的|高度|，用于扩大遮挡的范围
+    private float maxHeight;
+
+    public WaveRippleField() {
+        updateCourant();
+    }
+
+    /**
+     * 设置宽度和格点间距，格点数变化时清空高度场
+     *
+     * @param width      波浪的宽度(px)
+     * @param resolution 格点间距(px)，越大计算越少，涟漪越粗糙
+     */
+    public void setGrid(int width, float resolution) {
+        if (!(resolution > 0)) {
+            throw new IllegalArgumentException("resolution must be > 0");
+        }
+        if (this.width == width && this.resolution == resolution) {
+            return;
+        }
+        this.width = width;
+        this.resolution = resolution;
+        cellCount = width > 0 ? (int) Math.ceil(width / resolution) + 1 : 0;
+        if (current.length < cellCount) {
+            current = new float[cellCount];
+            previous = new float[cellCount];
+        }
+        updateCourant();
+        reset();
+    }
+
+    public float getResolution() {
+        return resolution;
+    }
+
+    /**
+     * @param waveSpeed 涟漪传播的速度(px/ms)
+     */
+    public void setWaveSpeed(float waveSpeed) {
+        if (!(waveSpeed > 0)) {
+            throw new IllegalArgumentException("waveSpeed must be > 0");
+        }
+        this.waveSpeed = waveSpeed;
+        updateCourant();
+    }
+
+    /**
+     * @param damping 每一步保留的能量，范围(0, 1)，越小涟漪消失得越快
+     */
+    public void setDamping(float damping) {
+        if (!(damping > 0 && damping < 1)) {
+            throw new IllegalArgumentException("damping must be in (0, 1)");
+        }
+        this.damping = damping;
+        updateCourant();
+    }
+
+    /**
+     * 限制的是时间步长而不是速度：r超过上限时增加子步数，每个子步的r = c*(dt/substeps)/dx
+     */
+    private void updateCourant() {
+        float courant = waveSpeed * (STEP_NANOS / 1e6f) / resolution;
+        substeps = Math.max(1, (int) Math.ceil(courant / MAX_COURANT));
+        courant /= substeps;
+        courantSquared = courant * courant;
+        //每个固定步长保留的能量仍为damping
+        substepDamping = substeps == 1 ? damping : (float) Math.pow(damping, 1.0 / substeps);
+    }
+
+    /**
+     * 在x处按下水面：附近的格点向depth靠拢，越靠近x越接近，结果有界，连续触摸不会无限叠加
+     *
+     * @param x      位置(px)
+     * @param depth  按下的深度(px)，正数向下(屏幕坐标)
+     * @param radius 影响的半径(px)
+     */
+    public void disturb(float x, float depth, float radius) {
+        if (cellCount == 0 || !(radius > 0)) {
+            return;
+        }
+        int first = Math.max(0, (int) Math.floor((x - radius) / resolution));
+        int last = Math.min(cellCount - 1, (int) Math.ceil((x + radius) / resolution));
+        for (int i = first; i <= last; i++) {
+            float distance = Math.abs(i * resolution - x) / radius;
+            if (distance >= 1) {
+                continue;
+            }
+            //余弦窗，边缘平滑过渡到0
+            float weight = 0.5f + 0.5f * (float) Math.cos(Math.PI * distance);
+            current[i] += (depth - current[i]) * weight;
+            //上一步取相同的值，按下的位置从静止开始回弹
+            previous[i] += (depth - previous[i]) * weight;
+            maxHeight = Math.max(maxHeight, Math.abs(current[i]));
+        }
+        atRest = false;
+    }
+
+    /**
+     * 推进到playTimeNanos，静止时直接返回
+     *
+     * @param playTimeNanos 动画时间(ns)
+     * @return 高度场是否变化
+     */
+    public boolean advance(long playTimeNanos) {
+        if (atRest) {
+            lastStepNanos = -1;
+            return false;
+        }
+        if (lastStepNanos < 0 || playTimeNanos < lastStepNanos) {
+            //第一次推进或时间倒退(如停止后重新播放)时从当前时间开始
+            lastStepNanos = playTimeNanos;
+            return false;
+        }
+        int steps = 0;
+        while (playTimeNanos - lastStepNanos >= STEP_NANOS && !atRest) {
+            if (steps == MAX_STEPS_PER_FRAME) {
+                lastStepNanos = playTimeNanos;
+                break;
+            }
+            for (int i = 0; i < substeps && !atRest; i++) {
+                step();
+            }
+            lastStepNanos += STEP_NANOS;
+            steps++;
+        }
+        return steps > 0;
+    }
+
+    private void step() {
+        float[] cur = current;
+        float[] next = previous;//上一步的值只在计算这一格时使用，可以原地覆盖
+        int last = cellCount - 1;
+        float r2 = courantSquared;
+        float damping = substepDamping;
+        float max = 0;
+        float maxVelocity = 0;
+        for (int i = 0; i <= last; i++) {
+            //两端为自由端：越界的邻点取端点自身
+            float left = cur[i > 0 ? i - 1 : 0];
+            float right = cur[i < last ? i + 1 : last];
+            float c = cur[i];
+            float value = (2 * c - next[i] + r2 * (left - 2 * c + right)) * damping;
+            next[i] = value;
+            max = Math.max(max, Math.abs(value));
+            maxVelocity = Math.max(maxVelocity, Math.abs(value - c));
+        }
+        previous = cur;
+        current = next;
+        maxHeight = max;
+        if (max < REST_EPSILON && maxVelocity < REST_EPSILON) {
+            reset();
+        }
+    }
+
+    /**
+     * 清空高度场，回到静止
+     */
+    public void reset() {
+        for (int i = 0; i < current.length; i++) {
+            current[i] = 0;
+            previous[i] = 0;
+        }
+        maxHeight = 0;
+        atRest = true;
+        lastStepNanos = -1;
+    }
+
+    public boolean isAtRest() {
+        return atRest;
+    }
+
+    /**
+     * 当前最大的|高度|(px)
+     */
+    public float getMaxHeight() {
+        return maxHeight;
+    }
+
+    /**
+     * x处的高度，格点之间线性插值
+     */
+    public float heightAt(float x) {
+        if (atRest || cellCount == 0) {
+            return 0;
+        }
+        if (cellCount == 1) {
+            return current[0];
+        }
+        float position = Math.max(0, Math.min(cellCount - 1, x / resolution));
+        int i = Math.min((int) position, cellCount - 2);
+        float fraction = position - i;
+        return current[i] + (current[i + 1] - current[i]) * fraction;
+    }
+
+    /**
+     * 把高度叠加到轮廓的点上。点按x递增排列(折线轮廓)，一次遍历格点，
+     * 每个格点区间内的点在相邻两个格点之间线性插值
+     *
+     * @param coords     点的坐标，依次为x, y，x不递减
+     * @param pointCount 点的个数
+     */
+    public void addTo(float[] coords, int pointCount) {
+        if (atRest || cellCount == 0) {
+            return;
+        }
+        float[] cur = current;
+        int last = cellCount - 1;
+        int p = 0;
+        //第一个格点左侧取端点的值
+        while (p < pointCount && coords[p * 2] <= 0) {
+            coords[p * 2 + 1] += cur[0];
+            p++;
+        }
+        for (int i = 0; i < last && p < pointCount; i++) {
+            float left = cur[i];
+            float slope = (cur[i + 1] - left) / resolution;
+            float cellX = i * resolution;
+            float nextX = cellX + resolution;
+            while (p < pointCount && coords[p * 2] < nextX) {
+                coords[p * 2 + 1] += left + (coords[p * 2] - cellX) * slope;
+                p++;
+            }
+        }
+        //最后一个格点右侧取端点的值
+        for (; p < pointCount; p++) {
+            coords[p * 2 + 1] += cur[last];
+        }
+    }
+}
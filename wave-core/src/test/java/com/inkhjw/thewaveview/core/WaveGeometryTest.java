@@ -0,0 +1,47 @@
+package com.inkhjw.thewaveview.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author hjw
+ * 多层合并计算的几何与逐层计算的结果一致
+ */
+
+public class WaveGeometryTest {
+    private static final int WIDTH = 1080;
+
+    @Test
+    public void fusedLayerKernelMatchesPerLayerGeometry() {
+        int layers = 8;
+        int width = WIDTH;
+        int waveWidth = 270;
+        int segments = WaveGeometry.segmentsPerWave(10, 0.5);
+        double[] phases = new double[layers];
+        for (int l = 0; l < layers; l++) {
+            phases[l] = -(l + 1) * (Math.PI / 4);
+        }
+        double[] scratch = new double[2 * layers];
+        float[] samples = new float[layers * (width + 1)];
+        WaveGeometry.sampleSineLayers(samples, width + 1, width + 1, WaveGeometry.omega(waveWidth), phases, layers,
+                scratch);
+        int knotStride = WaveGeometry.curveKnotCount(width, waveWidth, segments) * WaveGeometry.KNOT_STRIDE;
+        float[] knots = new float[layers * knotStride];
+        int knotCount = WaveGeometry.curveKnotsLayers(knots, knotStride, width, waveWidth, segments, phases, layers,
+                scratch);
+
+        float[] expectedSamples = new float[width + 1];
+        float[] expectedKnots = new float[knotStride];
+        for (int l = 0; l < layers; l++) {
+            WaveGeometry.sampleSine(expectedSamples, width + 1, 1, WaveGeometry.omega(waveWidth), phases[l]);
+            for (int x = 0; x <= width; x++) {
+                assertEquals(expectedSamples[x], samples[l * (width + 1) + x], 1e-5f);
+            }
+            assertEquals(WaveGeometry.curveKnots(expectedKnots, width, waveWidth, segments, 1, phases[l]), knotCount);
+            for (int i = 0; i < knotCount * WaveGeometry.KNOT_STRIDE; i++) {
+                assertEquals(expectedKnots[i], knots[l * knotStride + i], 1e-5f);
+            }
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.inkhjw.thewaveview.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author hjw
+ * 涟漪的传播、衰减和静止后停止推进
+ */
+
+public class WaveRippleFieldTest {
+    private static final int WIDTH = 1080;
+    //60fps的帧间隔
+    private static final long FRAME_NANOS = 16666667L;
+
+    @Test
+    public void rippleFieldSettlesToRest() {
+        WaveRippleField field = new WaveRippleField();
+        field.setGrid(WIDTH, 4);
+        assertTrue(field.isAtRest());
+        field.disturb(WIDTH / 2f, 20, 80);
+        assertFalse(field.isAtRest());
+        assertEquals(20, field.heightAt(WIDTH / 2f), 1e-3f);
+        assertEquals(0, field.heightAt(WIDTH / 2f + 100), 0);
+
+        long playTime = 0;
+        field.advance(playTime);
+        for (int i = 0; i < 30; i++) {
+            playTime += FRAME_NANOS;
+            assertTrue(field.advance(playTime));
+        }
+        //半秒后涟漪已经传播到两侧，中心回弹
+        assertTrue(Math.abs(field.heightAt(WIDTH / 2f + 100)) > 0.1f);
+        assertTrue(field.getMaxHeight() < 20);
+
+        int frames = 0;
+        while (!field.isAtRest() && frames < 60 * 30) {
+            playTime += FRAME_NANOS;
+            field.advance(playTime);
+            frames++;
+        }
+        assertTrue("ripple did not settle in " + frames + " frames", field.isAtRest());
+        assertEquals(0, field.heightAt(WIDTH / 2f), 0);
+        assertEquals(0, field.getMaxHeight(), 0);
+        //静止后不再推进
+        assertFalse(field.advance(playTime + FRAME_NANOS));
+    }
+
+    @Test
+    public void addToMatchesHeightAt() {
+        WaveRippleField field = new WaveRippleField();
+        field.setGrid(WIDTH, 4);
+        field.disturb(WIDTH / 3f, 20, 80);
+        field.disturb(WIDTH - 10, -15, 60);
+        long playTime = 0;
+        field.advance(playTime);
+        for (int i = 0; i < 10; i++) {
+            playTime += FRAME_NANOS;
+            field.advance(playTime);
+        }
+        //与折线轮廓相同：每个像素一个点
+        int pointCount = WIDTH + 1;
+        float[] coords = new float[pointCount * 2];
+        for (int x = 0; x < pointCount; x++) {
+            coords[x * 2] = x;
+            coords[x * 2 + 1] = 100;
+        }
+        field.addTo(coords, pointCount);
+        for (int x = 0; x < pointCount; x++) {
+            assertEquals(100 + field.heightAt(x), coords[x * 2 + 1], 1e-4f);
+        }
+    }
+
+    @Test
+    public void rippleSpeedDoesNotDependOnResolution() {
+        //格点较密时r超过稳定的上限，按子步推进，涟漪仍以相同的速度传播：半秒约150px，加上按下的半径
+        float expected = WaveRippleField.DEFAULT_WAVE_SPEED * 500 + 20;
+        assertEquals(expected, frontDistance(8), 15);
+        assertEquals(expected, frontDistance(1), 15);
+    }
+
+    /**
+     * 在中心按下后推进半秒，返回向左传播的前沿到中心的距离(px)
+     */
+    private static float frontDistance(float resolution) {
+        WaveRippleField field = new WaveRippleField();
+        field.setGrid(WIDTH, resolution);
+        field.disturb(WIDTH / 2f, 20, 20);
+        long playTime = 0;
+        field.advance(playTime);
+        for (int i = 0; i < 30; i++) {
+            playTime += FRAME_NANOS;
+            field.advance(playTime);
+        }
+        for (float x = 0; x < WIDTH / 2f; x++) {
+            if (Math.abs(field.heightAt(x)) > 0.1f) {
+                return WIDTH / 2f - x;
+            }
+        }
+        return 0;
+    }
+}